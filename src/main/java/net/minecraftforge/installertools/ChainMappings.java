@@ -8,19 +8,16 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
+import net.minecraftforge.installertools.util.MappingCache;
+import net.minecraftforge.installertools.util.MappingView;
 import net.minecraftforge.srgutils.IMappingFile;
-import net.minecraftforge.srgutils.INamedMappingFile;
-import net.minecraftforge.srgutils.IRenamer;
-import net.minecraftforge.srgutils.IMappingFile.IClass;
-import net.minecraftforge.srgutils.IMappingFile.IField;
-import net.minecraftforge.srgutils.IMappingFile.IMethod;
-import net.minecraftforge.srgutils.IMappingFile.IPackage;
-import net.minecraftforge.srgutils.IMappingFile.IParameter;
 
 public class ChainMappings extends Task {
     @Override
@@ -29,10 +26,10 @@ public class ChainMappings extends Task {
         OptionSpec<File> leftO = parser.accepts("left").withRequiredArg().ofType(File.class).required();
         OptionSpec<Void> reverseLeftO = parser.accepts("reverse-left");
         OptionSpec<String> leftNamesO = parser.accepts("left-names").withRequiredArg().ofType(String.class);
-        OptionSpec<File> rightO = parser.accepts("right").withRequiredArg().ofType(File.class).required();
-        OptionSpec<Void> reverseRightO = parser.accepts("reverse-right");
-        OptionSpec<String> rightNamesO = parser.accepts("right-names").withRequiredArg().ofType(String.class);
-        OptionSpec<File> outputO = parser.accepts("output").withRequiredArg().ofType(File.class).required();
+        OptionSpec<String> rightO = parser.accepts("right", "Mapping to chain with, in the form file[:names][:reversed], names being the two to load, EXA: file:left,right:reversed. May be specified multiple times to chain them all in order").withRequiredArg().ofType(String.class).required();
+        OptionSpec<Void> reverseRightO = parser.accepts("reverse-right", "Reverse the right mapping, only allowed with a single --right");
+        OptionSpec<String> rightNamesO = parser.accepts("right-names", "Names to load from the right mapping, only allowed with a single --right").withRequiredArg().ofType(String.class);
+        OptionSpec<String> outputO = parser.accepts("output", "File to write, in the form file[:format[:reversed]], format defaults to TSRG2. May be specified multiple times, all are written one after another from the same result").withRequiredArg().ofType(String.class).required();
 
         OptionSpec<Void> classesO = parser.accepts("classes");
         OptionSpec<Void> fieldsO  = parser.accepts("fields");
@@ -43,10 +40,10 @@ public class ChainMappings extends Task {
             OptionSet options = parser.parse(args);
 
             File left = options.valueOf(leftO);
-            File right = options.valueOf(rightO);
             String[] leftNames = parseNames(options, leftNamesO);
-            String[] rightNames = parseNames(options, rightNamesO);
-            File output = options.valueOf(outputO);
+            List<Link> rights = parseLinks(options.valuesOf(rightO), options.has(reverseRightO), options.valueOf(rightNamesO));
+            List<Target> outputs = new ArrayList<>();
+            options.valuesOf(outputO).forEach(value -> outputs.add(parseTarget(value)));
 
             final boolean selective = options.has(classesO) || options.has(methodsO) || options.has(fieldsO) || options.has(paramsO);
             final boolean classes = !selective || options.has(classesO);
@@ -57,36 +54,52 @@ public class ChainMappings extends Task {
             log("Left:    " + left);
             log("         Reversed=" + options.has(reverseLeftO));
             log("         " + (leftNames == null ? "null" : options.valueOf(leftNamesO)));
-            log("Right:   " + right);
-            log("         Reversed=" + options.has(reverseRightO));
-            log("         " + (rightNames == null ? "null" : options.valueOf(rightNamesO)));
+            for (Link right : rights) {
+                log("Right:   " + right.file);
+                log("         Reversed=" + right.reverse);
+                log("         " + (right.names == null ? "null" : String.join(",", right.names)));
+            }
             log("Classes: " + classes);
             log("Fields:  " + fields);
             log("Methods: " + methods);
             log("Params:  " + params);
-            log("Output:  " + output);
+            for (Target output : outputs)
+                log("Output:  " + output.file + " " + output.format + (output.reversed ? " Reversed" : ""));
 
-            if (output.exists() && !delete(output))
-                error("Could not delete output file: " + output);
+            for (Target output : outputs) {
+                if (output.file.exists() && !delete(output.file))
+                    error("Could not delete output file: " + output.file);
 
-            if (!output.getParentFile().exists() && !output.getParentFile().mkdirs())
-                error("Could not make output folders: " + output.getParentFile());
+                if (!output.file.getParentFile().exists() && !output.file.getParentFile().mkdirs())
+                    error("Could not make output folders: " + output.file.getParentFile());
+            }
 
             if (!left.exists())
                 error("Left does not exist: " + left);
-            if (!right.exists())
-                error("Right does not exist: " + right);
+            for (Link right : rights) {
+                if (!right.file.exists())
+                    error("Right does not exist: " + right.file);
+            }
 
 
-            IMappingFile leftM = leftNames == null ? IMappingFile.load(left) : INamedMappingFile.load(left).getMap(leftNames[0], leftNames[1]);
+            IMappingFile leftM = leftNames == null ? MappingCache.load(left) : MappingCache.load(left, leftNames[0], leftNames[1]);
+            // The result is the left renamed, so a reversed left needs its own tree anyway
             if (options.has(reverseLeftO))
                 leftM = leftM.reverse();
-            IMappingFile rightM = rightNames == null ? IMappingFile.load(right) : INamedMappingFile.load(right).getMap(rightNames[0], rightNames[1]);
-            if (options.has(reverseRightO))
-                rightM = rightM.reverse();
-            IMappingFile outputM = leftM.rename(makeRenamer(rightM, classes, fields, methods, params));
+            MappingView view = MappingView.of(leftM);
+
+            // Hops are only composed lookups, no tree is built until the result is materialized for writing
+            for (Link right : rights) {
+                IMappingFile rightM = right.names == null ? MappingCache.load(right.file) : MappingCache.load(right.file, right.names[0], right.names[1]);
+                view = link(view, right.reverse ? MappingView.reverse(rightM) : MappingView.of(rightM), classes, fields, methods, params);
+            }
+
+            IMappingFile result = MappingView.materialize(leftM, view);
 
-            outputM.write(output.toPath(), IMappingFile.Format.TSRG2, false);
+            // The chain is only computed once, every target just serializes the result. srgutils isn't documented as safe
+            // to read from several threads, so they are written one at a time instead of concurrently.
+            for (Target output : outputs)
+                result.write(output.file.toPath(), output.format, output.reversed);
         } catch (OptionException e) {
             parser.printHelpOn(System.out);
             e.printStackTrace();
@@ -107,38 +120,115 @@ public class ChainMappings extends Task {
     private String[] parseNames(OptionSet options, OptionSpec<String> spec) {
         if (!options.has(spec))
             return null;
-        String[] ret = options.valueOf(spec).split(",");
+        return parseNames(options.valueOf(spec));
+    }
+
+    private String[] parseNames(String value) {
+        String[] ret = value.split(",");
         if (ret.length != 2)
             throw new IllegalArgumentException("Name argument must be exactly two values, EXA: left,right");
         return ret;
     }
 
-    protected IRenamer makeRenamer(IMappingFile link, boolean classes, boolean fields, boolean methods, boolean params) {
-        return new IRenamer() {
-            public String rename(IPackage value) {
-                return link.remapPackage(value.getMapped());
+    /*
+     * Every --right carries its own names and direction, as jopt only keeps the values of a repeated option in order, not where
+     * other options were. --reverse-right and --right-names are how a single --right has always worked, so they are still accepted for that.
+     */
+    private List<Link> parseLinks(List<String> values, boolean reverse, String names) {
+        if (values.size() > 1 && (reverse || names != null))
+            throw new IllegalArgumentException("--reverse-right and --right-names can only be used with a single --right, use file[:names][:reversed] instead");
+
+        List<Link> ret = new ArrayList<>();
+        for (String value : values) {
+            Link link = parseLink(value);
+            if (reverse)
+                link.reverse = true;
+            if (names != null) {
+                if (link.names != null)
+                    throw new IllegalArgumentException("Names specified twice for right: " + value);
+                link.names = parseNames(names);
             }
+            ret.add(link);
+        }
+        return ret;
+    }
 
-            public String rename(IClass value) {
-                return classes ? link.remapClass(value.getMapped()) : value.getMapped();
-            }
+    // Parsed from the right like outputs. Names are the part after the last colon if it has a comma and isn't a path.
+    private Link parseLink(String value) {
+        Link ret = new Link();
+        String path = value;
+        int idx = path.lastIndexOf(':');
+        if (idx != -1 && "reversed".equalsIgnoreCase(path.substring(idx + 1))) {
+            ret.reverse = true;
+            path = path.substring(0, idx);
+            idx = path.lastIndexOf(':');
+        }
 
-            public String rename(IField value) {
-                IClass cls = link.getClass(value.getParent().getMapped());
-                return cls == null || !fields ? value.getMapped() : cls.remapField(value.getMapped());
+        if (idx != -1) {
+            String names = path.substring(idx + 1);
+            if (names.indexOf(',') != -1 && names.indexOf('/') == -1 && names.indexOf('\\') == -1) {
+                ret.names = parseNames(names);
+                path = path.substring(0, idx);
             }
+        }
 
-            public String rename(IMethod value) {
-                IClass cls = link.getClass(value.getParent().getMapped());
-                return cls == null || !methods ? value.getMapped() : cls.remapMethod(value.getMapped(), value.getMappedDescriptor());
-            }
+        ret.file = new File(path);
+        return ret;
+    }
 
-            public String rename(IParameter value) {
-                IMethod mtd = value.getParent();
-                IClass cls = link.getClass(mtd.getParent().getMapped());
-                mtd = cls == null ? null : cls.getMethod(mtd.getMapped(), mtd.getMappedDescriptor());
-                return mtd == null || !params ? value.getMapped() : mtd.remapParameter(value.getIndex(), value.getMapped());
-            }
-        };
+    // Parsed from the right, so that paths with a drive letter or other colons still work when there is no format
+    private static Target parseTarget(String value) {
+        boolean reversed = false;
+        String path = value;
+        int idx = path.lastIndexOf(':');
+        if (idx != -1 && "reversed".equalsIgnoreCase(path.substring(idx + 1))) {
+            reversed = true;
+            path = path.substring(0, idx);
+            idx = path.lastIndexOf(':');
+        }
+
+        IMappingFile.Format format = idx == -1 ? null : getFormat(path.substring(idx + 1));
+        if (format != null)
+            path = path.substring(0, idx);
+        else if (reversed)
+            throw new IllegalArgumentException("Invalid output, reversed requires a format, EXA: file:tsrg2:reversed " + value);
+        else
+            format = IMappingFile.Format.TSRG2;
+
+        return new Target(new File(path).getAbsoluteFile(), format, reversed);
+    }
+
+    private static IMappingFile.Format getFormat(String name) {
+        for (IMappingFile.Format format : IMappingFile.Format.values()) {
+            if (format.name().equalsIgnoreCase(name))
+                return format;
+        }
+        return null;
+    }
+
+    private static class Target {
+        private final File file;
+        private final IMappingFile.Format format;
+        private final boolean reversed;
+
+        private Target(File file, IMappingFile.Format format, boolean reversed) {
+            this.file = file;
+            this.format = format;
+            this.reversed = reversed;
+        }
+    }
+
+    private static class Link {
+        private File file;
+        private boolean reverse = false;
+        private String[] names = null;
+    }
+
+    /*
+     * Looks each hop up on the mapped side of the hops before it. Each hop sees the same names and descriptors it would if the
+     * hops before it were written out and passed in as --left of a separate run, see MappingView.remapDescriptor.
+     */
+    protected MappingView link(MappingView view, MappingView link, boolean classes, boolean fields, boolean methods, boolean params) {
+        return view.chain(link, classes, fields, methods, params);
     }
 }
@@ -4,6 +4,7 @@
  */
 package net.minecraftforge.installertools;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -13,6 +14,8 @@ import java.util.stream.Collectors;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import net.minecraftforge.installertools.util.MappingCache;
+
 public class ConsoleTool {
     public static final Gson GSON = new GsonBuilder().create();
 
@@ -29,6 +32,14 @@ public class ConsoleTool {
                 x++;
             } else if (args[x].startsWith("--task=")) {
                 task = Tasks.valueOf(Tasks.class, args[x].substring(7));
+            } else if ("--mapping-cache".equals(args[x])) {
+                if (x == args.length - 1)
+                    error("--mapping-cache must specify a directory");
+                MappingCache.setDirectory(new File(args[++x]));
+            } else if (args[x].startsWith("--mapping-cache=")) {
+                MappingCache.setDirectory(new File(args[x].substring(16)));
+            } else if ("--no-mapping-cache".equals(args[x])) {
+                MappingCache.setDirectory(null);
             } else {
                 extra.add(args[x]);
             }
@@ -38,6 +49,8 @@ public class ConsoleTool {
             error("Must specify task using --task, known values: " + valid);
 
         log("Task: " + task.name());
+        if (MappingCache.getDirectory() != null)
+            log("Mapping Cache: " + MappingCache.getDirectory());
         task.get().process(extra.toArray(new String[extra.size()]));
     }
 
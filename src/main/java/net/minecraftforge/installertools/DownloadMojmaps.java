@@ -10,91 +10,303 @@ import joptsimple.OptionException;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
+import net.minecraftforge.installertools.util.Downloader;
+import net.minecraftforge.installertools.util.HashFunction;
+import net.minecraftforge.installertools.util.HttpCache;
 import net.minecraftforge.installertools.util.ManifestJson;
+import net.minecraftforge.installertools.util.VerifyingInputStream;
 import net.minecraftforge.installertools.util.VersionJson;
 import net.minecraftforge.srgutils.IMappingFile;
 import net.minecraftforge.srgutils.IMappingFile.Format;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class DownloadMojmaps extends Task {
     private static final String MANIFEST_URL = "https://launchermeta.mojang.com/mc/game/version_manifest.json";
     private static final Gson GSON = new GsonBuilder().create();
+    private static final long BACKOFF = 1000;
+
+    private boolean sanitize;
+    private Format format;
+    private URL manifestUrl;
+    private HttpCache cache;
+    private int retries;
+    private CompletableFuture<ManifestJson> manifest;
+    private final Map<String, CompletableFuture<VersionJson>> versions = new ConcurrentHashMap<>();
 
     @Override
     public void process(String[] args) throws IOException {
         OptionParser parser = new OptionParser();
-        OptionSpec<String> versionO = parser.accepts("version").withRequiredArg().ofType(String.class).required();
-        OptionSpec<String> sideO = parser.accepts("side").withRequiredArg().ofType(String.class).required();
-        OptionSpec<File> outputO = parser.accepts("output").withRequiredArg().ofType(File.class).required();
+        OptionSpec<String> versionO = parser.accepts("version", "May be specified multiple times, once for every --output or once for all of them").withRequiredArg().ofType(String.class).required();
+        OptionSpec<String> sideO = parser.accepts("side", "May be specified multiple times, once for every --output or once for all of them").withRequiredArg().ofType(String.class).required();
+        OptionSpec<File> outputO = parser.accepts("output", "May be specified multiple times to download several mappings at once").withRequiredArg().ofType(File.class).required();
         OptionSpec<Void> sanitizeO = parser.accepts("sanitize");
         OptionSpec<Format> formatO = parser.accepts("format").withRequiredArg().ofType(Format.class);
         OptionSpec<Void> skipIfExistsO = parser.accepts("skipIfExists");
+        OptionSpec<String> manifestO = parser.accepts("manifest", "Version manifest to find the version in").withRequiredArg().ofType(String.class).defaultsTo(MANIFEST_URL);
+        OptionSpec<File> cacheO = parser.accepts("cache", "Directory to keep downloads in, only changed files are downloaded again").withRequiredArg().ofType(File.class);
+        OptionSpec<Integer> retriesO = parser.accepts("retries", "Number of times to retry a failed download, resuming where it stopped").withRequiredArg().ofType(Integer.class).defaultsTo(5);
+        // The JDK keeps up to 5 idle connections per host alive, more threads than that would just open new ones
+        OptionSpec<Integer> threadsO = parser.accepts("threads", "Number of downloads to run at once").withRequiredArg().ofType(Integer.class).defaultsTo(5);
 
         try {
             OptionSet options = parser.parse(args);
 
-            String mcversion = options.valueOf(versionO);
-            String side = options.valueOf(sideO);
-            File output = options.valueOf(outputO).getAbsoluteFile();
-            boolean sanitize = options.has(sanitizeO);
-            Format format = !options.has(formatO) ? Format.TSRG : options.valueOf(formatO);
+            List<String> mcversions = options.valuesOf(versionO);
+            List<String> sides = options.valuesOf(sideO);
+            List<File> outputs = options.valuesOf(outputO);
+            sanitize = options.has(sanitizeO);
+            format = !options.has(formatO) ? Format.TSRG : options.valueOf(formatO);
             boolean skip = options.has(skipIfExistsO);
+            manifestUrl = new URL(options.valueOf(manifestO));
+            cache = options.has(cacheO) ? new HttpCache(options.valueOf(cacheO)) : null;
+            int threads = options.valueOf(threadsO);
+            retries = options.valueOf(retriesO);
+
+            if (mcversions.size() != 1 && mcversions.size() != outputs.size())
+                error("Must specify one --version, or one for every --output");
+            if (sides.size() != 1 && sides.size() != outputs.size())
+                error("Must specify one --side, or one for every --output");
+            if (threads <= 0)
+                error("--threads must be positive");
+            if (retries < 0)
+                error("--retries must not be negative");
 
-            log("MC Version: " + mcversion);
-            log("Side:       " + side);
-            log("Output:     " + output);
+            List<Job> jobs = new ArrayList<>();
+            for (int x = 0; x < outputs.size(); x++)
+                jobs.add(new Job(mcversions.get(mcversions.size() == 1 ? 0 : x), sides.get(sides.size() == 1 ? 0 : x), outputs.get(x).getAbsoluteFile()));
+
+            for (Job job : jobs) {
+                log("MC Version: " + job.version);
+                log("Side:       " + job.side);
+                log("Output:     " + job.output);
+            }
             log("Sanitize:   " + sanitize);
             log("Format:     " + format);
             log("Skip:       " + skip);
+            if (!MANIFEST_URL.equals(manifestUrl.toString()))
+                log("Manifest:   " + manifestUrl);
+            if (cache != null)
+                log("Cache:      " + options.valueOf(cacheO));
+            if (jobs.size() > 1)
+                log("Threads:    " + threads);
 
             // Just trust it, The preferred method is to use the sanitized format and use the installer's output caching but this is added just in case.
-            if (output.exists() && skip) {
-                log("Skipping as output file exists");
+            if (skip) {
+                jobs.removeIf(job -> {
+                    if (!job.output.exists())
+                        return false;
+                    log(job.prefix + "Skipping as output file exists");
+                    return true;
+                });
+            }
+
+            if (jobs.isEmpty())
+                return;
+            if (jobs.size() == 1) {
+                download(jobs.get(0));
                 return;
             }
 
-            File parent = output.getParentFile();
-            if (parent != null && !parent.exists() && !parent.mkdirs())
-                error("Could not make output folders: " + parent);
+            // Logs from different jobs are interleaved, so say which each one belongs to
+            for (Job job : jobs)
+                job.prefix = "[" + job.version + " " + job.side + "] ";
 
-            try (InputStream manIn = new URL(MANIFEST_URL).openStream()) {
-                URL url = GSON.fromJson(new InputStreamReader(manIn), ManifestJson.class).getUrl(mcversion);
-                if (url == null)
-                    error("Missing version from manifest: " + mcversion);
-
-                try (InputStream verIn = url.openStream()) {
-                    VersionJson json = VersionJson.load(verIn);
-                    if (json == null)
-                        error("Missing Minecraft version JSON from URL " + url);
-
-                    VersionJson.Download download = json.downloads.get(side + "_mappings");
-                    if (download == null || download.url == null)
-                        error("Missing download info for " + side + " mappings");
-
-                    if (sanitize) {
-                        try (InputStream is = download.url.openStream()) {
-                            // Sending it through the load/write process nukes all the comments and other things that may be in the file.
-                            // As well as sorts things. So it *should* result in the same output file as long as Mojang doesn't change
-                            // any of the actual functional content of the file
-                            IMappingFile map = IMappingFile.load(is);
-                            map.write(output.toPath(), format, false);
-                        }
-                    } else {
-                        Files.copy(download.url.openStream(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, jobs.size()));
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (Job job : jobs) {
+                    futures.add(executor.submit(() -> {
+                        download(job);
+                        return null;
+                    }));
+                }
+
+                int failed = 0;
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        // Already logged by error, anything else still needs to be
+                        if (e.getCause().getClass() != RuntimeException.class)
+                            e.getCause().printStackTrace();
+                        failed++;
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
                     }
-                    log("Downloaded Mojang mappings for " + mcversion);
                 }
+                if (failed != 0)
+                    error("Failed to download " + failed + " of " + jobs.size() + " mappings");
+            } finally {
+                executor.shutdownNow();
             }
         } catch (OptionException e) {
             parser.printHelpOn(System.out);
             e.printStackTrace();
         }
     }
+
+    private void download(Job job) throws IOException {
+        File parent = job.output.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists())
+            error(job.prefix + "Could not make output folders: " + parent);
+
+        Downloader downloader = new Downloader(msg -> log(job.prefix + msg), retries, BACKOFF);
+        VersionJson json = getVersion(job, downloader);
+        VersionJson.Download download = json.downloads.get(job.side + "_mappings");
+        if (download == null || download.url == null)
+            error(job.prefix + "Missing download info for " + job.side + " mappings");
+
+        long size = download.size > 0 ? download.size : -1;
+        if (!sanitize && download.sha1 != null && job.output.exists() && download.sha1.equalsIgnoreCase(HashFunction.SHA1.hash(job.output))) {
+            log(job.prefix + "Skipping as output file matches sha1: " + download.sha1);
+            return;
+        }
+
+        if (sanitize) {
+            sanitize(job, download, size, downloader);
+        } else if (cache == null) {
+            try {
+                downloader.download(download.url, job.output.toPath(), download.sha1, size);
+            } catch (IOException e) {
+                error(job.prefix + e.getMessage());
+            }
+        } else {
+            // Hashed as it is read, anything that doesn't match the version json fails when the stream ends
+            try (VerifyingInputStream is = new VerifyingInputStream(Files.newInputStream(cache.get(download.url, true, download.sha1, size, downloader)), download.sha1, size)) {
+                Files.copy(is, job.output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                Files.deleteIfExists(job.output.toPath());
+                error(job.prefix + "Failed to download " + job.side + " mappings from " + download.url + ": " + e.getMessage());
+            }
+        }
+        log(job.prefix + "Downloaded Mojang mappings for " + job.version);
+    }
+
+    /*
+     * Sending it through the load/write process nukes all the comments and other things that may be in the file.
+     * As well as sorts things. So it *should* result in the same output file as long as Mojang doesn't change
+     * any of the actual functional content of the file
+     */
+    private void sanitize(Job job, VersionJson.Download download, long size, Downloader downloader) throws IOException {
+        IMappingFile map = null;
+        Path raw = null;
+        try {
+            if (cache != null) {
+                // Hashed as it is read, so a cached body that no longer matches the version json fails before it is used
+                try (VerifyingInputStream is = new VerifyingInputStream(Files.newInputStream(cache.get(download.url, true, download.sha1, size, downloader)), download.sha1, size)) {
+                    map = IMappingFile.load(is);
+                    is.readFully();
+                }
+            } else {
+                // Downloaded next to the output like any other download, so it gets the same retries, resume and sha1 check. Removed once parsed.
+                raw = job.output.toPath().resolveSibling(job.output.getName() + ".download");
+                downloader.download(download.url, raw, download.sha1, size);
+                map = IMappingFile.load(raw.toFile());
+            }
+        } catch (IOException e) {
+            error(job.prefix + "Failed to download " + job.side + " mappings from " + download.url + ": " + e.getMessage());
+        } finally {
+            if (raw != null)
+                Files.deleteIfExists(raw);
+        }
+
+        // Written next to the output and moved into place, so a failed write doesn't leave half a file behind
+        Path output = job.output.toPath();
+        Path tmp = output.resolveSibling(output.getFileName() + ".tmp");
+        try {
+            map.write(tmp, format, false);
+            Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            error(job.prefix + "Failed to write " + output + ": " + e.getMessage());
+        }
+    }
+
+    // The manifest and every version json are only downloaded once, no matter how many jobs need them. Failures are shared the same way.
+    private VersionJson getVersion(Job job, Downloader downloader) throws IOException {
+        CompletableFuture<VersionJson> created = new CompletableFuture<>();
+        CompletableFuture<VersionJson> future = versions.putIfAbsent(job.version, created);
+        if (future == null) {
+            future = created;
+            try {
+                URL url = getManifest().getUrl(job.version);
+                if (url == null)
+                    error(job.prefix + "Missing version from manifest: " + job.version);
+
+                VersionJson json;
+                try (InputStream verIn = open(url, true, downloader)) {
+                    json = VersionJson.load(verIn);
+                }
+                if (json == null)
+                    error(job.prefix + "Missing Minecraft version JSON from URL " + url);
+                created.complete(json);
+            } catch (IOException | RuntimeException e) {
+                created.completeExceptionally(e);
+            }
+        }
+        return join(future);
+    }
+
+    private synchronized ManifestJson getManifest() throws IOException {
+        if (manifest == null) {
+            manifest = new CompletableFuture<>();
+            try (InputStream manIn = open(manifestUrl, false, new Downloader(this::log, retries, BACKOFF))) {
+                manifest.complete(GSON.fromJson(new InputStreamReader(manIn), ManifestJson.class));
+            } catch (IOException | RuntimeException e) {
+                manifest.completeExceptionally(e);
+            }
+        }
+        return join(manifest);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException)e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            throw e;
+        }
+    }
+
+    // Version JSONs live at content addressed URLs, so they never need to be checked again once cached
+    private InputStream open(URL url, boolean immutable, Downloader downloader) throws IOException {
+        if (cache == null)
+            return new ByteArrayInputStream(downloader.read(url));
+        return Files.newInputStream(downloader.retry(url, () -> cache.get(url, immutable)));
+    }
+
+    private static class Job {
+        private final String version;
+        private final String side;
+        private final File output;
+        private String prefix = "";
+
+        private Job(String version, String side, File output) {
+            this.version = version;
+            this.side = side;
+            this.output = output;
+        }
+    }
 }
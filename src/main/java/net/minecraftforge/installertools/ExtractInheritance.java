@@ -4,24 +4,36 @@
  */
 package net.minecraftforge.installertools;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.lang.reflect.Modifier;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
@@ -29,6 +41,9 @@ import java.util.stream.Collector;
 import java.util.stream.Collectors;
 import java.util.Map.Entry;
 import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Type;
@@ -44,60 +59,215 @@ import org.objectweb.asm.tree.VarInsnNode;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
+import net.minecraftforge.installertools.util.HashFunction;
+import net.minecraftforge.installertools.util.InheritanceDatabase;
+import net.minecraftforge.installertools.util.JdkClasses;
+import net.minecraftforge.installertools.util.SpillMap;
+import net.minecraftforge.installertools.util.SymbolTable;
+import net.minecraftforge.installertools.util.UnionFind;
 import net.minecraftforge.installertools.util.Utils;
 
 import static org.objectweb.asm.Opcodes.*;
 
 public class ExtractInheritance extends Task {
     private static final Gson GSON = new GsonBuilder().excludeFieldsWithModifiers(Modifier.PRIVATE).setPrettyPrinting().create();
-    private Map<String, ClassInfo> inClasses = new HashMap<>();
-    private Map<String, ClassInfo> libClasses = new HashMap<>();
+    private static final int SHARD_MAGIC = 0x494E4853; // INHS
+    private static final int SHARD_VERSION = 1;
+    private SpillMap<ClassInfo> inClasses;
+    private SpillMap<ClassInfo> libClasses;
+    private Map<String, LibraryClass> libIndex = new HashMap<>();
+    private List<ZipFile> libJars = new ArrayList<>();
+    private JdkClasses jdkClasses = new JdkClasses();
     private Set<String> failedClasses = new HashSet<>();
+    private Families families;
+    private SymbolTable symbols = new SymbolTable();
 
     @Override
     public void process(String[] args) throws IOException {
 
         OptionParser parser = new OptionParser();
-        OptionSpec<File> inputO = parser.accepts("input").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> inputO = parser.accepts("input").withRequiredArg().ofType(File.class);
         OptionSpec<File> outputO = parser.accepts("output").withRequiredArg().ofType(File.class).required();
         OptionSpec<File> libraryO = parser.accepts("lib").withRequiredArg().ofType(File.class);
         OptionSpec<Void> annotationsO = parser.accepts("annotations");
+        OptionSpec<Void> compactO = parser.accepts("compact");
+        OptionSpec<Void> gzipO = parser.accepts("gzip");
+        OptionSpec<Void> binaryO = parser.accepts("binary");
+        OptionSpec<File> hashesO = parser.accepts("hashes").withRequiredArg().ofType(File.class);
+        OptionSpec<File> previousO = parser.accepts("previous").withRequiredArg().ofType(File.class);
+        OptionSpec<File> previousHashesO = parser.accepts("previous-hashes").withRequiredArg().ofType(File.class);
+        OptionSpec<File> familiesO = parser.accepts("families", "Group methods that must share a name into families, writing the members of each to this file").withRequiredArg().ofType(File.class);
+        OptionSpec<String> shardO = parser.accepts("shard", "Only parse part of the input, in the form index/count, writing the classes to output for a later --merge").withRequiredArg().ofType(String.class);
+        OptionSpec<File> mergeO = parser.accepts("merge", "Shard created by --shard, used instead of --input. Every shard of the input must be specified").withRequiredArg().ofType(File.class);
+        OptionSpec<Integer> memoryBudgetO = parser.accepts("memory-budget", "Approximate megabytes of class data to keep in memory, the rest is spilled to a temporary file. Only counts the class values, not class names or interned symbols").withRequiredArg().ofType(Integer.class);
 
         try {
             OptionSet options = parser.parse(args);
 
-            File input = options.valueOf(inputO).getAbsoluteFile();
+            File input = options.has(inputO) ? options.valueOf(inputO).getAbsoluteFile() : null;
             File output = options.valueOf(outputO).getAbsoluteFile();
             boolean annotations = options.has(annotationsO);
+            boolean compact = options.has(compactO);
+            boolean gzip = options.has(gzipO);
+            boolean binary = options.has(binaryO);
+            File hashesFile = options.has(hashesO) ? options.valueOf(hashesO).getAbsoluteFile() : null;
+            File previous = options.has(previousO) ? options.valueOf(previousO).getAbsoluteFile() : null;
+            File previousHashes = options.has(previousHashesO) ? options.valueOf(previousHashesO).getAbsoluteFile() : null;
+            List<File> libs = options.valuesOf(libraryO);
+            File familiesFile = options.has(familiesO) ? options.valueOf(familiesO).getAbsoluteFile() : null;
+            Integer memoryBudget = options.has(memoryBudgetO) ? options.valueOf(memoryBudgetO) : null;
+            String shard = options.has(shardO) ? options.valueOf(shardO) : null;
+            List<File> merge = options.valuesOf(mergeO);
+
+            log("Input:   " + input);
+            log("Shard:   " + shard);
+            merge.forEach(part -> log("Merge:   " + part));
+            log("Output:  " + output);
+            log("Ann:     " + annotations);
+            log("Compact: " + compact);
+            log("Gzip:    " + gzip);
+            log("Binary:  " + binary);
+            log("Hashes:  " + hashesFile);
+            log("Prev:    " + previous);
+            log("PrevHash:" + previousHashes);
+            log("Families:" + familiesFile);
+            log("Budget:  " + (memoryBudget == null ? "unlimited" : memoryBudget + "MB"));
+
+            if (binary && (compact || gzip))
+                error("--binary can not be combined with --compact or --gzip");
+            if ((previous == null) != (previousHashes == null))
+                error("--previous and --previous-hashes must be specified together");
+
+            if (memoryBudget != null && memoryBudget <= 0)
+                error("--memory-budget must be positive");
+            if ((input == null) == merge.isEmpty())
+                error("Exactly one of --input or --merge must be specified");
+            if (!merge.isEmpty() && (shard != null || hashesFile != null || previous != null))
+                error("--merge can not be combined with --shard, --hashes or --previous");
+            if (shard != null && (binary || compact || gzip || hashesFile != null || previous != null || familiesFile != null || !libs.isEmpty()))
+                error("--shard only parses the input, --binary, --compact, --gzip, --hashes, --previous, --families and --lib are used by --merge");
+            if (input != null && !input.exists())
+                error("Missing required input jar: " + input);
+            for (File part : merge) {
+                if (!part.exists())
+                    error("Missing shard: " + part);
+            }
 
-            log("Input:  " + input);
-            log("Output: " + output);
-            log("Ann:    " + annotations);
+            if (shard != null) {
+                int idx = shard.indexOf('/');
+                int index = -1;
+                int count = -1;
+                try {
+                    index = Integer.parseInt(shard.substring(0, idx));
+                    count = Integer.parseInt(shard.substring(idx + 1));
+                } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                    // Reported below
+                }
+                if (count <= 0 || index < 0 || index >= count)
+                    error("Invalid --shard, expected index/count with 0 <= index < count: " + shard);
 
-            if (!input.exists())
-                error("Missing required input jar: " + input);
+                log("Reading Input: " + input);
+                writeShard(input, output, annotations, index, count);
+                log("Process complete");
+                return;
+            }
+            if (previous != null && !previous.exists())
+                error("Missing previous output: " + previous);
+            if (previousHashes != null && !previousHashes.exists())
+                error("Missing previous hashes: " + previousHashes);
+
+            Hashes hashes = null;
+            Hashes prevHashes = null;
+            if (hashesFile != null || previous != null)
+                hashes = new Hashes(annotations, libs);
+
+            if (previous != null) {
+                try (Reader reader = new InputStreamReader(new FileInputStream(previousHashes), StandardCharsets.UTF_8)) {
+                    prevHashes = GSON.fromJson(reader, Hashes.class);
+                }
+                String reason = hashes.getMismatch(prevHashes);
+                if (reason != null) {
+                    log("Can not reuse previous output, " + reason);
+                    prevHashes = null;
+                }
+            }
 
-            if (output.exists()) output.delete();
-            if (!output.getParentFile().exists()) output.getParentFile().mkdirs();
-            output.createNewFile();
+            // The budget is split evenly between input and library classes. It only bounds the class values, every class name, the spill
+            // index and the symbol table stay on heap and grow with the number of classes, and the spill file only grows.
+            long budget = memoryBudget == null ? Long.MAX_VALUE : memoryBudget * 1024L * 1024L / 2;
+            inClasses = new SpillMap<>(new ClassCodec(), budget);
+            libClasses = new SpillMap<>(new ClassCodec(), budget);
 
-            log("Reading Input: " + input);
-            readJar(input, inClasses, annotations);
+            try {
+                if (!merge.isEmpty()) {
+                    readShards(merge, annotations);
+                } else if (hashes == null) {
+                    log("Reading Input: " + input);
+                    readJar(input, annotations);
+                } else {
+                    log("Reading Input: " + input);
+                    readInput(input, annotations, hashes, prevHashes, previous);
+                }
 
-            for (File lib : options.valuesOf(libraryO)) {
-                log("Reading Library: " + lib);
-                readJar(lib, libClasses, annotations);
-            }
+                // The previous output may be the same file as the output, so only clear it once the input has been read.
+                if (output.exists() && !output.delete())
+                    error("Could not delete previous output: " + output);
+                if (!output.getParentFile().exists()) output.getParentFile().mkdirs();
+                output.createNewFile();
 
-            for (Entry<String, ClassInfo> entry : inClasses.entrySet())
-                resolveClass(entry.getValue(), annotations);
+                for (File lib : libs) {
+                    log("Indexing Library: " + lib);
+                    indexJar(lib);
+                }
+
+                for (String name : inClasses.keySet())
+                    resolveClass(inClasses.get(name), annotations);
+
+                if (familiesFile != null) {
+                    // Separate pass, classes reused from a previous output are not resolved again
+                    families = new Families(symbols);
+                    for (String name : inClasses.keySet())
+                        groupFamilies(inClasses.get(name), annotations);
+                    families.number(inClasses);
+                    log("Method Families: " + families.size());
+                }
+
+                log("Library Classes: " + libIndex.size() + " Loaded: " + libClasses.keySet().stream().filter(libIndex::containsKey).count());
+
+                if (binary)
+                    writeBinary(output);
+                else
+                    writeJson(output, compact, gzip);
 
-            Files.write(output.toPath(), GSON.toJson(inClasses).getBytes(StandardCharsets.UTF_8));
+                if (familiesFile != null)
+                    writeFamilies(familiesFile);
+
+                if (memoryBudget != null)
+                    log("Spilled: " + (inClasses.getWrites() + libClasses.getWrites()) + " Reloaded: " + (inClasses.getReads() + libClasses.getReads()));
+            } finally {
+                for (ZipFile jar : libJars)
+                    jar.close();
+                jdkClasses.close();
+                inClasses.close();
+                libClasses.close();
+            }
+
+            if (hashesFile != null) {
+                if (!hashesFile.getParentFile().exists()) hashesFile.getParentFile().mkdirs();
+                try (OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(hashesFile), StandardCharsets.UTF_8)) {
+                    GSON.toJson(hashes, writer);
+                }
+            }
 
             log("Process complete");
         } catch (OptionException e) {
@@ -106,22 +276,484 @@ public class ExtractInheritance extends Task {
         }
     }
 
-    private void readJar(File input, Map<String, ClassInfo> classes, boolean annotations) throws IOException {
+    private void writeJson(File output, boolean compact, boolean gzip) throws IOException {
+        List<String> names = new ArrayList<>(inClasses.keySet());
+        Collections.sort(names);
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+        if (gzip)
+            out = new GZIPOutputStream(out);
+
+        // Stream each class out as we go, instead of building the entire document as a String first.
+        try (JsonWriter writer = GSON.newJsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            if (compact)
+                writer.setIndent("");
+
+            writer.beginObject();
+            for (String name : names) {
+                writer.name(name);
+                inClasses.get(name).write(writer, families);
+            }
+            writer.endObject();
+        }
+    }
+
+    // See InheritanceDatabase for the format
+    private void writeBinary(File output) throws IOException {
+        // Classes may be spilled to disk, so only hold on to them one at a time
+        Set<String> unique = new HashSet<>();
+        Map<String, List<String>> subclasses = new HashMap<>();
+        Map<String, List<String>> implementors = new HashMap<>();
+        for (String name : inClasses.keySet()) {
+            ClassInfo cls = inClasses.get(name);
+            cls.getStrings(unique);
+
+            // Interfaces always extend Object, but are not really subclasses of it
+            if (cls.superName != null && (cls.access & ACC_INTERFACE) == 0)
+                subclasses.computeIfAbsent(cls.superName, k -> new ArrayList<>()).add(cls.name);
+            if (cls.interfaces != null) {
+                for (String intf : cls.interfaces)
+                    implementors.computeIfAbsent(intf, k -> new ArrayList<>()).add(cls.name);
+            }
+        }
+
+        List<byte[]> strings = new ArrayList<>(unique.size());
+        unique.forEach(str -> strings.add(str.getBytes(StandardCharsets.UTF_8)));
+        strings.sort(InheritanceDatabase.STRING_ORDER);
+
+        Map<String, Integer> ids = new HashMap<>();
+        int stringSize = 0;
+        for (int x = 0; x < strings.size(); x++) {
+            ids.put(new String(strings.get(x), StandardCharsets.UTF_8), x);
+            stringSize += strings.get(x).length;
+        }
+
+        Comparator<String> byId = Comparator.comparingInt(ids::get);
+        List<String> classes = new ArrayList<>(inClasses.keySet());
+        classes.sort(byId);
+
+        subclasses.values().forEach(lst -> lst.sort(byId));
+        implementors.values().forEach(lst -> lst.sort(byId));
+        Set<String> parents = new HashSet<>(subclasses.keySet());
+        parents.addAll(implementors.keySet());
+        List<String> reverse = new ArrayList<>(parents);
+        reverse.sort(byId);
+
+        int classIndex = InheritanceDatabase.HEADER_SIZE + (strings.size() + 1) * 4 + stringSize;
+        int[] sizes = new int[classes.size()];
+        int pos = classIndex + classes.size() * 8;
+        for (int x = 0; x < sizes.length; x++) {
+            sizes[x] = getBinarySize(inClasses.get(classes.get(x)));
+            pos += sizes[x];
+        }
+        int reverseIndex = pos;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
+            out.writeInt(InheritanceDatabase.MAGIC);
+            out.writeInt(InheritanceDatabase.VERSION);
+            out.writeInt(strings.size());
+            out.writeInt(classes.size());
+            out.writeInt(classIndex);
+            out.writeInt(reverse.size());
+            out.writeInt(reverseIndex);
+
+            int offset = 0;
+            for (byte[] str : strings) {
+                out.writeInt(offset);
+                offset += str.length;
+            }
+            out.writeInt(offset);
+            for (byte[] str : strings)
+                out.write(str);
+
+            pos = classIndex + classes.size() * 8;
+            for (int x = 0; x < sizes.length; x++) {
+                out.writeInt(ids.get(classes.get(x)));
+                out.writeInt(pos);
+                pos += sizes[x];
+            }
+
+            pos = classIndex + classes.size() * 8;
+            for (String name : classes)
+                pos = writeBinary(out, pos, inClasses.get(name), ids);
+
+            pos = reverseIndex + reverse.size() * 8;
+            for (String name : reverse) {
+                out.writeInt(ids.get(name));
+                out.writeInt(pos);
+                pos += (2 + size(subclasses.get(name)) + size(implementors.get(name))) * 4;
+            }
+
+            for (String name : reverse) {
+                writeIds(out, ids, subclasses.get(name));
+                writeIds(out, ids, implementors.get(name));
+            }
+        }
+    }
+
+    private static void writeIds(DataOutputStream out, Map<String, Integer> ids, List<String> values) throws IOException {
+        out.writeInt(size(values));
+        if (values != null)
+            for (String value : values)
+                out.writeInt(ids.get(value));
+    }
+
+    private static int getBinarySize(ClassInfo cls) {
+        int ret = InheritanceDatabase.CLASS_HEADER_SIZE + (size(cls.interfaces) + size(cls.annotations)) * 4;
+        if (cls.methods != null) {
+            for (MethodInfo mtd : cls.methods)
+                ret += InheritanceDatabase.METHOD_SIZE + getExtraSize(mtd.exceptions, mtd.annotations);
+        }
+        if (cls.fields != null) {
+            for (FieldInfo fld : cls.fields)
+                ret += InheritanceDatabase.FIELD_SIZE + getExtraSize(null, fld.annotations);
+        }
+        return ret;
+    }
+
+    private static int getExtraSize(List<String> exceptions, List<AnnotationInfo> annotations) {
+        if (exceptions == null && annotations == null)
+            return 0;
+        return (2 + size(exceptions) + size(annotations)) * 4;
+    }
+
+    private static int size(List<?> list) {
+        return list == null ? 0 : list.size();
+    }
+
+    private static int writeBinary(DataOutputStream out, int pos, ClassInfo cls, Map<String, Integer> ids) throws IOException {
+        List<MethodInfo> methods = cls.methods == null ? Collections.emptyList() : new ArrayList<>(Arrays.asList(cls.methods));
+        methods.sort(Comparator.<MethodInfo>comparingInt(mtd -> ids.get(mtd.getName())).thenComparingInt(mtd -> ids.get(mtd.getDesc())));
+        List<FieldInfo> fields = cls.fields == null ? Collections.emptyList() : new ArrayList<>(Arrays.asList(cls.fields));
+        fields.sort(Comparator.comparingInt(fld -> ids.get(fld.name)));
+
+        out.writeInt(ids.get(cls.name));
+        out.writeInt(cls.access);
+        out.writeInt(id(ids, cls.superName));
+        out.writeInt(size(cls.interfaces));
+        out.writeInt(methods.size());
+        out.writeInt(fields.size());
+        out.writeInt(size(cls.annotations));
+        if (cls.interfaces != null)
+            for (String intf : cls.interfaces)
+                out.writeInt(ids.get(intf));
+        if (cls.annotations != null)
+            for (AnnotationInfo ann : cls.annotations)
+                out.writeInt(ids.get(ann.desc));
+
+        int extra = pos + InheritanceDatabase.CLASS_HEADER_SIZE + (size(cls.interfaces) + size(cls.annotations)) * 4 +
+            methods.size() * InheritanceDatabase.METHOD_SIZE + fields.size() * InheritanceDatabase.FIELD_SIZE;
+
+        for (MethodInfo mtd : methods) {
+            out.writeInt(ids.get(mtd.getName()));
+            out.writeInt(ids.get(mtd.getDesc()));
+            out.writeInt(mtd.access);
+            out.writeInt(id(ids, mtd.override));
+            out.writeInt(mtd.bouncer == null ? -1 : ids.get(mtd.bouncer.name));
+            out.writeInt(mtd.bouncer == null ? -1 : ids.get(mtd.bouncer.desc));
+            int size = getExtraSize(mtd.exceptions, mtd.annotations);
+            out.writeInt(size == 0 ? -1 : extra);
+            extra += size;
+        }
+
+        for (FieldInfo fld : fields) {
+            out.writeInt(ids.get(fld.name));
+            out.writeInt(ids.get(fld.desc));
+            out.writeInt(fld.access);
+            int size = getExtraSize(null, fld.annotations);
+            out.writeInt(size == 0 ? -1 : extra);
+            extra += size;
+        }
+
+        for (MethodInfo mtd : methods)
+            writeExtra(out, ids, mtd.exceptions, mtd.annotations);
+        for (FieldInfo fld : fields)
+            writeExtra(out, ids, null, fld.annotations);
+
+        return extra;
+    }
+
+    private static void writeExtra(DataOutputStream out, Map<String, Integer> ids, List<String> exceptions, List<AnnotationInfo> annotations) throws IOException {
+        if (exceptions == null && annotations == null)
+            return;
+        writeIds(out, ids, exceptions);
+        out.writeInt(size(annotations));
+        if (annotations != null)
+            for (AnnotationInfo ann : annotations)
+                out.writeInt(ids.get(ann.desc));
+    }
+
+    private static int id(Map<String, Integer> ids, String value) {
+        return value == null ? -1 : ids.get(value);
+    }
+
+    private void readJar(File input, boolean annotations) throws IOException {
+        try (ZipFile inJar = new ZipFile(input)) {
+            Utils.forZip(inJar, entry -> {
+                if (!entry.getName().endsWith(".class") || entry.getName().startsWith("."))
+                    return;
+                ClassInfo info = readClass(Utils.toByteArray(inJar.getInputStream(entry)), annotations, 0);
+                inClasses.put(info.name, info);
+            });
+        } catch (FileNotFoundException e) {
+            throw new FileNotFoundException("Could not open input file: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Parses every count'th class entry starting at index, writing them to a partial file for a later --merge.
+     * Layout: SHARD_MAGIC, SHARD_VERSION, input sha1, annotations, index, count,
+     * then for each class its entry index and the record from ClassInfo.write(DataOutput), terminated by -1.
+     */
+    private void writeShard(File input, File output, boolean annotations, int index, int count) throws IOException {
+        String hash = HashFunction.SHA1.hash(input);
+        if (output.getParentFile() != null && !output.getParentFile().exists())
+            output.getParentFile().mkdirs();
+
+        int written = 0;
+        try (ZipFile inJar = new ZipFile(input);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
+            out.writeInt(SHARD_MAGIC);
+            out.writeInt(SHARD_VERSION);
+            out.writeUTF(hash);
+            out.writeBoolean(annotations);
+            out.writeInt(index);
+            out.writeInt(count);
+
+            int entryIndex = 0;
+            for (Enumeration<? extends ZipEntry> entries = inJar.entries(); entries.hasMoreElements();) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.getName().endsWith(".class") || entry.getName().startsWith("."))
+                    continue;
+                if (entryIndex % count == index) {
+                    ClassInfo info = readClass(Utils.toByteArray(inJar.getInputStream(entry)), annotations, 0);
+                    out.writeInt(entryIndex);
+                    info.write(out);
+                    written++;
+                }
+                entryIndex++;
+            }
+            out.writeInt(-1);
+        } catch (FileNotFoundException e) {
+            throw new FileNotFoundException("Could not open input file: " + e.getMessage());
+        }
+        log("Shard " + index + "/" + count + ": " + written + " classes");
+    }
+
+    // Loads every shard of an input, keeping the same last one wins rule as readJar for duplicate classes.
+    private void readShards(List<File> parts, boolean annotations) throws IOException {
+        String hash = null;
+        int count = -1;
+        BitSet seen = new BitSet();
+        Map<String, Integer> order = new HashMap<>();
+
+        for (File part : parts) {
+            log("Reading Shard: " + part);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(part)))) {
+                if (in.readInt() != SHARD_MAGIC)
+                    error("Invalid shard, bad magic: " + part);
+                int version = in.readInt();
+                if (version != SHARD_VERSION)
+                    error("Unsupported shard version " + version + " expected " + SHARD_VERSION + ": " + part);
+
+                String partHash = in.readUTF();
+                boolean partAnnotations = in.readBoolean();
+                int index = in.readInt();
+                int partCount = in.readInt();
+
+                if (hash == null) {
+                    hash = partHash;
+                    count = partCount;
+                } else if (!hash.equals(partHash) || count != partCount) {
+                    error("Shard " + part + " was created from a different input or shard count");
+                }
+                if (partAnnotations != annotations)
+                    error("Shard " + part + " was created " + (partAnnotations ? "with" : "without") + " --annotations, the merge must match");
+                if (seen.get(index))
+                    error("Duplicate shard " + index + "/" + count + ": " + part);
+                seen.set(index);
+
+                for (int entryIndex = in.readInt(); entryIndex != -1; entryIndex = in.readInt()) {
+                    ClassInfo info = new ClassInfo(symbols, in);
+                    Integer previous = order.get(info.name);
+                    if (previous == null || previous < entryIndex) {
+                        order.put(info.name, entryIndex);
+                        inClasses.put(info.name, info);
+                    }
+                }
+            }
+        }
+
+        if (seen.cardinality() != count)
+            error("Missing shards, found " + seen.cardinality() + " of " + count);
+    }
+
+    // Only reads the central directory, classes are parsed the first time getClassInfo needs them
+    private void indexJar(File lib) throws IOException {
+        ZipFile jar;
+        try {
+            jar = new ZipFile(lib);
+        } catch (FileNotFoundException e) {
+            throw new FileNotFoundException("Could not open input file: " + e.getMessage());
+        }
+        libJars.add(jar);
+
+        Utils.forZip(jar, entry -> {
+            String name = entry.getName();
+            if (!name.endsWith(".class") || name.startsWith("."))
+                return;
+            name = name.substring(0, name.length() - 6);
+            // Multi-release jars, the class name doesn't include the version directory
+            if (name.startsWith("META-INF/versions/")) {
+                int idx = name.indexOf('/', 18);
+                if (idx != -1)
+                    name = name.substring(idx + 1);
+            }
+            // Same last one wins rule as readJar
+            libIndex.put(name, new LibraryClass(jar, entry));
+        });
+    }
+
+    /*
+     * Reads the input jar, recording the hash of every class.
+     * If we have a previous run to compare against, only the classes whose bytes changed are parsed, the rest are loaded from the previous output.
+     * Any reused class that has a changed class anywhere in its hierarchy has its overrides cleared so that it is resolved again.
+     */
+    private void readInput(File input, boolean annotations, Hashes hashes, Hashes previous, File previousOutput) throws IOException {
         try (ZipFile inJar = new ZipFile(input)) {
+            // Same last one wins rule as readJar
+            Map<String, ZipEntry> entries = new HashMap<>();
             Utils.forZip(inJar, entry -> {
                 if (!entry.getName().endsWith(".class") || entry.getName().startsWith("."))
                     return;
-                ClassReader reader = new ClassReader(Utils.toByteArray(inJar.getInputStream(entry)));
-                ClassNode classNode = new ClassNode();
-                reader.accept(classNode, 0);
-                ClassInfo info = new ClassInfo(classNode, annotations);
-                classes.put(info.name, info);
+                byte[] data = Utils.toByteArray(inJar.getInputStream(entry));
+                String name = new ClassReader(data).getClassName();
+                entries.put(name, entry);
+                hashes.classes.put(name, HashFunction.SHA1.hash(data));
             });
+
+            Set<String> dirty = new HashSet<>();
+            Set<String> reuse = new HashSet<>();
+            for (Entry<String, String> entry : hashes.classes.entrySet()) {
+                if (previous != null && entry.getValue().equals(previous.classes.get(entry.getKey())))
+                    reuse.add(entry.getKey());
+                else
+                    dirty.add(entry.getKey());
+            }
+
+            if (previous != null) {
+                for (String name : previous.classes.keySet()) {
+                    if (!hashes.classes.containsKey(name))
+                        dirty.add(name);
+                }
+            }
+
+            if (!reuse.isEmpty())
+                readPrevious(previousOutput, reuse);
+
+            for (String name : reuse) {
+                if (!inClasses.containsKey(name))
+                    dirty.add(name);
+            }
+
+            for (String name : dirty) {
+                ZipEntry entry = entries.get(name);
+                if (entry != null) {
+                    ClassInfo info = readClass(Utils.toByteArray(inJar.getInputStream(entry)), annotations, 0);
+                    inClasses.put(info.name, info);
+                }
+            }
+
+            int invalid = 0;
+            Map<String, Boolean> affected = new HashMap<>();
+            for (String name : reuse) {
+                if (!dirty.contains(name) && isAffected(name, dirty, affected)) {
+                    ClassInfo cls = inClasses.get(name);
+                    cls.invalidate();
+                    inClasses.put(name, cls);
+                    invalid++;
+                }
+            }
+
+            if (previous != null)
+                log("Changed: " + dirty.size() + " Reused: " + (reuse.size() - invalid) + " Reresolved: " + invalid);
         } catch (FileNotFoundException e) {
             throw new FileNotFoundException("Could not open input file: " + e.getMessage());
         }
     }
 
+    private boolean isAffected(String name, Set<String> dirty, Map<String, Boolean> cache) {
+        if (dirty.contains(name))
+            return true;
+
+        Boolean ret = cache.get(name);
+        if (ret != null)
+            return ret;
+
+        // Library and JDK classes can't change between runs without invalidating the entire previous output, so we only need to walk input classes.
+        ClassInfo cls = inClasses.get(name);
+        boolean value = false;
+        if (cls != null) {
+            cache.put(name, false);
+            if (cls.superName != null)
+                value = isAffected(cls.superName, dirty, cache);
+            if (!value && cls.interfaces != null) {
+                for (String intf : cls.interfaces) {
+                    if (isAffected(intf, dirty, cache)) {
+                        value = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        cache.put(name, value);
+        return value;
+    }
+
+    // Loads the specified classes from a previous output, either the binary or the (optionally gzipped) json format.
+    private void readPrevious(File file, Set<String> names) throws IOException {
+        int magic;
+        try (InputStream in = new FileInputStream(file)) {
+            magic = (in.read() << 24) | (in.read() << 16) | (in.read() << 8) | in.read();
+        }
+
+        if (magic == InheritanceDatabase.MAGIC) {
+            // Read into the heap instead of mapped, the file is usually the output we're about to replace, and a
+            // mapping can't be released on demand. Everything we need is copied out into the ClassInfos anyway.
+            InheritanceDatabase db = InheritanceDatabase.load(file.toPath());
+            for (String name : names) {
+                InheritanceDatabase.ClassEntry entry = db.getClass(name);
+                if (entry != null)
+                    inClasses.put(name, new ClassInfo(symbols, entry));
+            }
+            return;
+        }
+
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        if ((magic >>> 16) == 0x1F8B)
+            in = new GZIPInputStream(in);
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (names.contains(name))
+                    inClasses.put(name, new ClassInfo(symbols, JsonParser.parseReader(reader).getAsJsonObject()));
+                else
+                    reader.skipValue();
+            }
+            reader.endObject();
+        }
+    }
+
+    private ClassInfo readClass(byte[] data, boolean annotations, int flags) {
+        ClassReader reader = new ClassReader(data);
+        ClassNode classNode = new ClassNode();
+        reader.accept(classNode, flags);
+        return new ClassInfo(symbols, classNode, annotations);
+    }
+
     private void resolveClass(ClassInfo cls, boolean annotations) {
         if (cls == null || cls.resolved)
             return;
@@ -134,7 +766,7 @@ public class ExtractInheritance extends Task {
                 resolveClass(getClassInfo(intf, annotations), annotations);
 
         if (cls.methods != null) {
-            for (MethodInfo mtd : cls.methods.values()) {
+            for (MethodInfo mtd : cls.methods) {
                 if ("<init>".equals(mtd.getName()) || "<cinit>".equals(mtd.getName()))
                     continue;
                 if ((mtd.access & (ACC_PRIVATE | ACC_STATIC)) != 0)
@@ -156,7 +788,7 @@ public class ExtractInheritance extends Task {
                     if (c.interfaces != null)
                         c.interfaces.forEach(intf -> addQueue(intf, processed, que, annotations));
 
-                    MethodInfo m = c.getMethod(mtd.getName(), mtd.getDesc());
+                    MethodInfo m = c.getMethod(mtd.key);
 
                     int bad_flags = ACC_PRIVATE | ACC_FINAL | ACC_STATIC;
                     if (m == null || (m.access & bad_flags) != 0)
@@ -171,6 +803,48 @@ public class ExtractInheritance extends Task {
         }
 
         cls.resolved = true;
+        // Store it again, so the changes are kept if it is spilled. Input classes shadow library classes with the same name.
+        (inClasses.containsKey(cls.name) ? inClasses : libClasses).put(cls.name, cls);
+    }
+
+    // Every virtual method visible from the class with the same signature must share a name, even when they come from
+    // unrelated parents, such as an interface method implemented by a super class that doesn't implement the interface.
+    private void groupFamilies(ClassInfo cls, boolean annotations) {
+        Map<Long, Integer> seen = new HashMap<>();
+        Queue<ClassInfo> que = new ArrayDeque<>();
+        Set<String> processed = new HashSet<>();
+        que.add(cls);
+        processed.add(cls.name);
+
+        while (!que.isEmpty()) {
+            ClassInfo c = que.poll();
+            if (c.superName != null)
+                addQueue(c.superName, processed, que, annotations);
+            if (c.interfaces != null)
+                c.interfaces.forEach(intf -> addQueue(intf, processed, que, annotations));
+
+            if (c.methods == null)
+                continue;
+
+            for (MethodInfo mtd : c.methods) {
+                if (!Families.isVirtual(mtd))
+                    continue;
+                int element = families.get(c.name, mtd.key, !inClasses.containsKey(c.name));
+                Integer first = seen.putIfAbsent(mtd.key, element);
+                if (first != null)
+                    families.union(first, element);
+            }
+        }
+    }
+
+    private void writeFamilies(File output) throws IOException {
+        if (!output.getParentFile().exists()) output.getParentFile().mkdirs();
+        try (JsonWriter writer = GSON.newJsonWriter(new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(output)), StandardCharsets.UTF_8))) {
+            writer.beginArray();
+            for (int x = 0; x < families.size(); x++)
+                families.write(writer, x);
+            writer.endArray();
+        }
     }
 
     private void addQueue(String cls, Set<String> visited, Queue<ClassInfo> que, boolean annotations) {
@@ -187,12 +861,37 @@ public class ExtractInheritance extends Task {
         if (ret != null)
             return ret;
         ret = libClasses.get(name);
+        if (ret == null && libIndex.containsKey(name)) {
+            LibraryClass lib = libIndex.get(name);
+            try (InputStream is = lib.jar.getInputStream(lib.entry)) {
+                // Only ever used to look up overrides, so we don't need method bodies
+                ret = readClass(Utils.toByteArray(is), annotations, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read library class: " + name + " from " + lib.jar.getName(), e);
+            }
+            libClasses.put(name, ret);
+        }
         if (ret == null && !failedClasses.contains(name)) {
+            byte[] data;
             try {
-                Class<?> cls = Class.forName(name.replaceAll("/", "."), false, this.getClass().getClassLoader());
-                ret = new ClassInfo(cls, annotations);
+                data = jdkClasses.getClassBytes(name);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read JDK class: " + name, e);
+            }
+
+            if (data != null) {
+                // Only ever used to look up overrides, so we don't need method bodies, which also means we never detect bouncers
+                ClassNode node = new ClassNode();
+                new ClassReader(data).accept(node, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+                // JDK classes used to come from reflection, where interfaces have no super class. The override search order
+                // depends on when java/lang/Object is reached, so keep that behavior to not change the output.
+                if ((node.access & ACC_INTERFACE) != 0)
+                    node.superName = null;
+
+                ret = new ClassInfo(symbols, node, annotations);
                 libClasses.put(name, ret);
-            } catch (ClassNotFoundException ex) {
+            } else {
                 log("Cant Find Class: " + name);
                 failedClasses.add(name);
             }
@@ -200,141 +899,500 @@ public class ExtractInheritance extends Task {
         return ret;
     }
 
+    /*
+     * Override families, groups of methods that must all have the same name.
+     * Ids are numbered in output order, the first method of the first class sorted by name is in family 0.
+     * Only input class methods are listed as members, a family containing any library or JDK method is marked as such, as it can't be renamed.
+     */
+    private static class Families {
+        private final SymbolTable symbols;
+        private final Map<Long, Integer> signatures = new HashMap<>(); // MethodInfo.key -> signature id
+        private final Map<Long, Integer> elements = new HashMap<>();   // SymbolTable.key(owner id, signature id) -> element
+        private final UnionFind sets = new UnionFind();
+        private final BitSet library = new BitSet(); // Elements owned by library classes
+        private final BitSet libraryFamilies = new BitSet();
+        private int[] ids;
+        private List<List<String>> members;
+
+        private Families(SymbolTable symbols) {
+            this.symbols = symbols;
+        }
+
+        static boolean isVirtual(MethodInfo mtd) {
+            return (mtd.access & (ACC_PRIVATE | ACC_STATIC)) == 0 && !"<init>".equals(mtd.getName()) && !"<clinit>".equals(mtd.getName());
+        }
+
+        int get(String owner, long key, boolean isLibrary) {
+            Integer signature = signatures.get(key);
+            if (signature == null) {
+                signature = signatures.size();
+                signatures.put(key, signature);
+            }
+
+            long id = SymbolTable.key(symbols.intern(owner), signature);
+            Integer ret = elements.get(id);
+            if (ret == null) {
+                ret = sets.add();
+                elements.put(id, ret);
+                if (isLibrary)
+                    library.set(ret);
+            }
+            return ret;
+        }
+
+        void union(int a, int b) {
+            sets.union(a, b);
+        }
+
+        // Assigns the family ids, and gathers the members of each family.
+        void number(SpillMap<ClassInfo> classes) {
+            ids = new int[sets.size()];
+            Arrays.fill(ids, -1);
+            members = new ArrayList<>();
+
+            List<String> names = new ArrayList<>(classes.keySet());
+            Collections.sort(names);
+            for (String name : names) {
+                ClassInfo cls = classes.get(name);
+                if (cls.methods == null)
+                    continue;
+
+                for (MethodInfo mtd : cls.methods) {
+                    if (!isVirtual(mtd))
+                        continue;
+                    int root = sets.find(get(cls.name, mtd.key, false));
+                    if (ids[root] == -1) {
+                        ids[root] = members.size();
+                        members.add(new ArrayList<>());
+                    }
+                    members.get(ids[root]).add(cls.name + ' ' + mtd.getName() + ' ' + mtd.getDesc());
+                }
+            }
+
+            for (int x = library.nextSetBit(0); x != -1; x = library.nextSetBit(x + 1)) {
+                int id = ids[sets.find(x)];
+                if (id != -1)
+                    libraryFamilies.set(id);
+            }
+        }
+
+        int size() {
+            return members.size();
+        }
+
+        int getFamily(String owner, long key) {
+            int ownerId = symbols.find(owner);
+            Integer signature = signatures.get(key);
+            if (ownerId == -1 || signature == null)
+                return -1;
+            Integer element = elements.get(SymbolTable.key(ownerId, signature));
+            return element == null ? -1 : ids[sets.find(element)];
+        }
+
+        void write(JsonWriter out, int id) throws IOException {
+            out.beginObject();
+            out.name("id").value(id);
+            if (libraryFamilies.get(id))
+                out.name("library").value(true);
+            out.name("methods").beginArray();
+            for (String member : members.get(id))
+                out.value(member);
+            out.endArray();
+            out.endObject();
+        }
+    }
+
+    // Classes are spilled as the records from ClassInfo.write(DataOutput)
+    private class ClassCodec implements SpillMap.Codec<ClassInfo> {
+        @Override
+        public void write(DataOutput out, ClassInfo value) throws IOException {
+            value.write(out);
+        }
+
+        @Override
+        public ClassInfo read(DataInput in) throws IOException {
+            return new ClassInfo(symbols, in);
+        }
+
+        @Override
+        public long getSize(ClassInfo value) {
+            return value.getSize();
+        }
+    }
+
+    private static class LibraryClass {
+        private final ZipFile jar;
+        private final ZipEntry entry;
+
+        private LibraryClass(ZipFile jar, ZipEntry entry) {
+            this.jar = jar;
+            this.entry = entry;
+        }
+    }
+
     private static class ClassInfo {
         public final String name;
-        @SuppressWarnings("unused")
         public final int access;
         public final String superName;
         public final List<String> interfaces;
-        public final Map<String, MethodInfo> methods;
-        @SuppressWarnings("unused")
-        public final Map<String, FieldInfo> fields;
-        @SuppressWarnings("unused")
+        public final MethodInfo[] methods;
+        public final FieldInfo[] fields;
         public final List<AnnotationInfo> annotations;
 
-        private boolean resolved = false;
+        // Open addressing table of MethodInfo.key -> index + 1 in methods, only built when a linear scan would be slower.
+        private long[] methodKeys;
+        private int[] methodSlots;
 
-        private Map<String, MethodInfo> makeMap(List<MethodInfo> lst) {
-            if (lst.isEmpty())
-                return null;
-            Map<String, MethodInfo> ret = new TreeMap<>();
-            lst.forEach(info -> ret.put(info.getName() + " " + info.getDesc(), info));
-            return ret;
-        }
+        private boolean resolved = false;
 
-        ClassInfo(ClassNode node, boolean annotations) {
-            this.name = node.name;
+        ClassInfo(SymbolTable symbols, ClassNode node, boolean annotations) {
+            this.name = symbols.canonical(node.name);
             this.access = node.access;
-            this.superName = node.superName;
-            this.interfaces = node.interfaces.isEmpty() ? null : node.interfaces;
+            this.superName = symbols.canonical(node.superName);
+            this.interfaces = canonical(symbols, node.interfaces);
 
-            List<MethodInfo> lst = new ArrayList<>();
-            if (!node.methods.isEmpty())
-                node.methods.forEach(mn -> lst.add(new MethodInfo(this, mn, annotations)));
-            this.methods = makeMap(lst);
+            List<MethodInfo> mtds = new ArrayList<>(node.methods.size());
+            node.methods.forEach(mn -> mtds.add(new MethodInfo(symbols, this, mn, annotations)));
+            this.methods = makeMethods(mtds);
 
             if (!node.fields.isEmpty())
-                this.fields = node.fields.stream().map(fn -> new FieldInfo(fn, annotations)).collect(toTreeMap(e -> e.name, e -> e));
+                this.fields = node.fields.stream().map(fn -> new FieldInfo(symbols, fn, annotations)).collect(toTreeMap(e -> e.name, e -> e)).values().toArray(new FieldInfo[0]);
             else
                 this.fields = null;
 
             if (annotations)
-                this.annotations = getAnnotations(node.visibleAnnotations, node.invisibleAnnotations);
+                this.annotations = getAnnotations(symbols, node.visibleAnnotations, node.invisibleAnnotations);
             else
                 this.annotations = null;
         }
 
-        ClassInfo(Class<?> node, boolean annotations) {
-            this.name = node.getName().replace('.', '/');
-            this.access = node.getModifiers();
-            this.superName = node.getSuperclass() == null ? null : node.getSuperclass().getName().replace('.', '/');
-            List<String> intfs = new ArrayList<>();
-            for (Class<?> i : node.getInterfaces())
-                intfs.add(i.getName().replace('.', '/'));
-            this.interfaces = intfs.isEmpty() ? null : intfs;
+        // Loads an already resolved class from a previous json output
+        ClassInfo(SymbolTable symbols, JsonObject json) {
+            this.name = symbols.canonical(json.get("name").getAsString());
+            this.access = json.get("access").getAsInt();
+            this.superName = json.has("superName") ? symbols.canonical(json.get("superName").getAsString()) : null;
+            this.interfaces = toStrings(symbols, json.get("interfaces"));
 
             List<MethodInfo> mtds = new ArrayList<>();
+            if (json.has("methods")) {
+                for (Entry<String, JsonElement> entry : json.getAsJsonObject("methods").entrySet()) {
+                    int idx = entry.getKey().indexOf(' ');
+                    mtds.add(new MethodInfo(symbols, this, entry.getKey().substring(0, idx), entry.getKey().substring(idx + 1), entry.getValue().getAsJsonObject()));
+                }
+            }
+            this.methods = makeMethods(mtds);
 
-            for (Constructor<?> ctr : node.getConstructors())
-                mtds.add(new MethodInfo(this, ctr, annotations));
+            List<FieldInfo> flds = new ArrayList<>();
+            if (json.has("fields")) {
+                for (Entry<String, JsonElement> entry : json.getAsJsonObject("fields").entrySet())
+                    flds.add(new FieldInfo(symbols, entry.getKey(), entry.getValue().getAsJsonObject()));
+            }
+            this.fields = makeFields(flds);
 
-            for (Method mtd : node.getDeclaredMethods())
-                mtds.add(new MethodInfo(this, mtd, annotations));
+            this.annotations = getAnnotations(symbols, json.get("annotations"));
+            this.resolved = true;
+        }
 
-            this.methods = makeMap(mtds);
+        // Loads an already resolved class from a previous binary output
+        ClassInfo(SymbolTable symbols, InheritanceDatabase.ClassEntry entry) {
+            this.name = symbols.canonical(entry.getName());
+            this.access = entry.getAccess();
+            this.superName = symbols.canonical(entry.getSuperName());
+            this.interfaces = canonical(symbols, entry.getInterfaces());
 
-            Field[] flds = node.getDeclaredFields();
-            if (flds != null && flds.length > 0)
-                this.fields = Arrays.asList(flds).stream().map(fn -> new FieldInfo(fn, annotations)).collect(toTreeMap(e -> e.name, e -> e));
-            else
-                this.fields = null;
+            List<MethodInfo> mtds = new ArrayList<>();
+            entry.getMethods().forEach(mtd -> mtds.add(new MethodInfo(symbols, this, mtd)));
+            this.methods = makeMethods(mtds);
 
-            if (annotations)
-                this.annotations = getAnnotations(node.getDeclaredAnnotations());
-            else
-                this.annotations = null;
+            List<FieldInfo> flds = new ArrayList<>();
+            entry.getFields().forEach(fld -> flds.add(new FieldInfo(symbols, fld)));
+            this.fields = makeFields(flds);
+
+            this.annotations = getAnnotations(symbols, entry.getAnnotations());
+            this.resolved = true;
         }
 
-        public MethodInfo getMethod(String name, String desc) {
-            return methods == null ? null : methods.get(name + " " + desc);
+        // Loads a record written by write(DataOutput), in whatever state it was in when written
+        ClassInfo(SymbolTable symbols, DataInput in) throws IOException {
+            this.name = symbols.canonical(in.readUTF());
+            this.access = in.readInt();
+            this.superName = symbols.canonical(readString(in));
+            this.interfaces = readStrings(symbols, in);
+            this.annotations = readAnnotations(symbols, in);
+            this.resolved = in.readBoolean();
+
+            int count = in.readInt();
+            List<MethodInfo> mtds = new ArrayList<>(count);
+            for (int x = 0; x < count; x++)
+                mtds.add(new MethodInfo(symbols, this, in));
+            this.methods = makeMethods(mtds);
+
+            count = in.readInt();
+            List<FieldInfo> flds = new ArrayList<>(count);
+            for (int x = 0; x < count; x++)
+                flds.add(new FieldInfo(symbols, in));
+            this.fields = makeFields(flds);
+        }
+
+        // Sorted the same way the old TreeMap of "name desc" keys was, so the output order doesn't change.
+        private MethodInfo[] makeMethods(List<MethodInfo> lst) {
+            if (lst.isEmpty())
+                return null;
+
+            MethodInfo[] ret = lst.toArray(new MethodInfo[lst.size()]);
+            Arrays.sort(ret, MethodInfo::compareKey);
+
+            if (ret.length > 8) {
+                int size = Integer.highestOneBit(ret.length * 2 - 1) << 1;
+                this.methodKeys = new long[size];
+                this.methodSlots = new int[size];
+                for (int x = 0; x < ret.length; x++) {
+                    int idx = hash(ret[x].key) & (size - 1);
+                    while (this.methodSlots[idx] != 0)
+                        idx = (idx + 1) & (size - 1);
+                    this.methodKeys[idx] = ret[x].key;
+                    this.methodSlots[idx] = x + 1;
+                }
+            }
+            return ret;
+        }
+
+        private static FieldInfo[] makeFields(List<FieldInfo> lst) {
+            if (lst.isEmpty())
+                return null;
+            FieldInfo[] ret = lst.toArray(new FieldInfo[lst.size()]);
+            Arrays.sort(ret, (a, b) -> a.name.compareTo(b.name));
+            return ret;
+        }
+
+        private static int hash(long key) {
+            return (int)((key * 0x9E3779B97F4A7C15L) >>> 32);
+        }
+
+        // Key is SymbolTable.key(nameId, descId), does not allocate.
+        public MethodInfo getMethod(long key) {
+            if (methods == null)
+                return null;
+
+            if (methodSlots == null) {
+                for (MethodInfo mtd : methods) {
+                    if (mtd.key == key)
+                        return mtd;
+                }
+                return null;
+            }
+
+            int mask = methodSlots.length - 1;
+            for (int idx = hash(key) & mask; methodSlots[idx] != 0; idx = (idx + 1) & mask) {
+                if (methodKeys[idx] == key)
+                    return methods[methodSlots[idx] - 1];
+            }
+            return null;
+        }
+
+        // Something in our hierarchy changed, so we need to be resolved again
+        void invalidate() {
+            if (methods != null) {
+                for (MethodInfo mtd : methods)
+                    mtd.override = null;
+            }
+            this.resolved = false;
+        }
+
+        void getStrings(Set<String> strings) {
+            strings.add(name);
+            if (superName != null)
+                strings.add(superName);
+            if (interfaces != null)
+                strings.addAll(interfaces);
+            addAnnotations(strings, annotations);
+
+            if (methods != null) {
+                for (MethodInfo mtd : methods) {
+                    strings.add(mtd.getName());
+                    strings.add(mtd.getDesc());
+                    if (mtd.override != null)
+                        strings.add(mtd.override);
+                    if (mtd.bouncer != null) {
+                        strings.add(mtd.bouncer.name);
+                        strings.add(mtd.bouncer.desc);
+                    }
+                    if (mtd.exceptions != null)
+                        strings.addAll(mtd.exceptions);
+                    addAnnotations(strings, mtd.annotations);
+                }
+            }
+
+            if (fields != null) {
+                for (FieldInfo fld : fields) {
+                    strings.add(fld.name);
+                    strings.add(fld.desc);
+                    addAnnotations(strings, fld.annotations);
+                }
+            }
+        }
+
+        private static void addAnnotations(Set<String> strings, List<AnnotationInfo> annotations) {
+            if (annotations != null)
+                annotations.forEach(ann -> strings.add(ann.desc));
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeUTF(name);
+            out.writeInt(access);
+            writeString(out, superName);
+            writeStrings(out, interfaces);
+            writeAnnotations(out, annotations);
+            out.writeBoolean(resolved);
+
+            out.writeInt(methods == null ? 0 : methods.length);
+            if (methods != null) {
+                for (MethodInfo mtd : methods)
+                    mtd.write(out);
+            }
+
+            out.writeInt(fields == null ? 0 : fields.length);
+            if (fields != null) {
+                for (FieldInfo fld : fields)
+                    fld.write(out);
+            }
+        }
+
+        // Rough heap usage, not counting strings as they are shared through the SymbolTable
+        long getSize() {
+            long ret = 64 + getSize(interfaces) + getAnnotationsSize(annotations);
+            if (methods != null) {
+                ret += 16 + methods.length * 4;
+                for (MethodInfo mtd : methods)
+                    ret += 72 + getSize(mtd.exceptions) + getAnnotationsSize(mtd.annotations) + (mtd.bouncer == null ? 0 : 24);
+            }
+            if (methodSlots != null)
+                ret += 32 + methodSlots.length * 12;
+            if (fields != null) {
+                ret += 16 + fields.length * 4;
+                for (FieldInfo fld : fields)
+                    ret += 32 + getAnnotationsSize(fld.annotations);
+            }
+            return ret;
+        }
+
+        private static long getSize(List<String> values) {
+            return values == null ? 0 : 40 + values.size() * 4;
+        }
+
+        private static long getAnnotationsSize(List<AnnotationInfo> values) {
+            return values == null ? 0 : 40 + values.size() * 20;
+        }
+
+        // Same layout Gson used to produce from these fields, plus the family of each method if we have them.
+        void write(JsonWriter out, Families families) throws IOException {
+            out.beginObject();
+            out.name("name").value(name);
+            out.name("access").value(access);
+            if (superName != null)
+                out.name("superName").value(superName);
+            writeStrings(out, "interfaces", interfaces);
+
+            if (methods != null) {
+                out.name("methods").beginObject();
+                for (MethodInfo mtd : methods) {
+                    out.name(mtd.getName() + ' ' + mtd.getDesc());
+                    mtd.write(out, families == null ? -1 : families.getFamily(name, mtd.key));
+                }
+                out.endObject();
+            }
+
+            if (fields != null) {
+                out.name("fields").beginObject();
+                for (FieldInfo fld : fields) {
+                    out.name(fld.name);
+                    fld.write(out);
+                }
+                out.endObject();
+            }
+
+            writeAnnotations(out, annotations);
+            out.endObject();
         }
     }
 
     private static class FieldInfo {
         private final String name;
-        @SuppressWarnings("unused")
         public final String desc;
-        @SuppressWarnings("unused")
         public final int access;
-        @SuppressWarnings("unused")
         public final List<AnnotationInfo> annotations;
 
-        public FieldInfo(FieldNode node, boolean annotations) {
-            this.name = node.name;
-            this.desc = node.desc;
+        public FieldInfo(SymbolTable symbols, FieldNode node, boolean annotations) {
+            this.name = symbols.canonical(node.name);
+            this.desc = symbols.canonical(node.desc);
             this.access = node.access;
 
             if (annotations)
-                this.annotations = getAnnotations(node.visibleAnnotations, node.invisibleAnnotations);
+                this.annotations = getAnnotations(symbols, node.visibleAnnotations, node.invisibleAnnotations);
             else
                 this.annotations = null;
         }
 
-        public FieldInfo(Field node, boolean annotations) {
-            this.name = node.getName();
-            this.desc = Type.getType(node.getType()).getDescriptor();
-            this.access = node.getModifiers();
+        FieldInfo(SymbolTable symbols, String name, JsonObject json) {
+            this.name = symbols.canonical(name);
+            this.desc = symbols.canonical(json.get("desc").getAsString());
+            this.access = json.get("access").getAsInt();
+            this.annotations = getAnnotations(symbols, json.get("annotations"));
+        }
 
-            if (annotations)
-                this.annotations = getAnnotations(node.getDeclaredAnnotations());
-            else
-                this.annotations = null;
+        FieldInfo(SymbolTable symbols, InheritanceDatabase.FieldEntry entry) {
+            this.name = symbols.canonical(entry.getName());
+            this.desc = symbols.canonical(entry.getDesc());
+            this.access = entry.getAccess();
+            this.annotations = getAnnotations(symbols, entry.getAnnotations());
+        }
+
+        FieldInfo(SymbolTable symbols, DataInput in) throws IOException {
+            this.name = symbols.canonical(in.readUTF());
+            this.desc = symbols.canonical(in.readUTF());
+            this.access = in.readInt();
+            this.annotations = readAnnotations(symbols, in);
+        }
+
+        void write(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("desc").value(desc);
+            out.name("access").value(access);
+            writeAnnotations(out, annotations);
+            out.endObject();
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeUTF(name);
+            out.writeUTF(desc);
+            out.writeInt(access);
+            writeAnnotations(out, annotations);
         }
     }
 
     private static class MethodInfo {
         private final String name;
         private final String desc;
+        private final long key;
         public final int access;
-        @SuppressWarnings("unused")
         public List<String> exceptions;
         private final ClassInfo parent;
-        @SuppressWarnings("unused")
         public final Bouncer bouncer;
-        @SuppressWarnings("unused")
         public String override = null;
-        @SuppressWarnings("unused")
         public final List<AnnotationInfo> annotations;
 
-        MethodInfo(ClassInfo parent, MethodNode node, boolean annotations) {
-            this.name = node.name;
-            this.desc = node.desc;
+        MethodInfo(SymbolTable symbols, ClassInfo parent, MethodNode node, boolean annotations) {
+            int nameId = symbols.intern(node.name);
+            int descId = symbols.intern(node.desc);
+            this.name = symbols.get(nameId);
+            this.desc = symbols.get(descId);
+            this.key = SymbolTable.key(nameId, descId);
             this.access = node.access;
-            this.exceptions = node.exceptions.isEmpty() ? null : new ArrayList<>(node.exceptions);
+            this.exceptions = canonical(symbols, node.exceptions);
             this.parent = parent;
 
             if (annotations)
-                this.annotations = getAnnotations(node.visibleAnnotations, node.invisibleAnnotations);
+                this.annotations = getAnnotations(symbols, node.visibleAnnotations, node.invisibleAnnotations);
             else
                 this.annotations = null;
 
@@ -372,7 +1430,7 @@ public class ExtractInheritance extends Task {
                             MethodInsnNode mtd = (MethodInsnNode)end;
                             if (end != null && mtd.owner.equals(parent.name) &&
                                 Type.getArgumentsAndReturnSizes(node.desc) == Type.getArgumentsAndReturnSizes(mtd.desc)) {
-                                bounce = new Bouncer(mtd.name, mtd.desc);
+                                bounce = new Bouncer(symbols.canonical(mtd.name), symbols.canonical(mtd.desc));
                             }
                         }
                     }
@@ -381,38 +1439,51 @@ public class ExtractInheritance extends Task {
             this.bouncer = bounce;
         }
 
-        MethodInfo(ClassInfo parent, Method node, boolean annotations) {
-            this.name = node.getName();
-            this.desc = Type.getMethodDescriptor(node);
-            this.access = node.getModifiers();
-            List<String> execs = new ArrayList<>();
-            for (Class<?> e : node.getExceptionTypes())
-                execs.add(e.getName().replace('.', '/'));
-            this.exceptions = execs.isEmpty() ? null : execs;
+        MethodInfo(SymbolTable symbols, ClassInfo parent, String name, String desc, JsonObject json) {
+            int nameId = symbols.intern(name);
+            int descId = symbols.intern(desc);
+            this.name = symbols.get(nameId);
+            this.desc = symbols.get(descId);
+            this.key = SymbolTable.key(nameId, descId);
+            this.access = json.get("access").getAsInt();
+            this.exceptions = toStrings(symbols, json.get("exceptions"));
             this.parent = parent;
-            this.bouncer = null;
-
-            if (annotations)
-                this.annotations = getAnnotations(node.getDeclaredAnnotations());
-            else
-                this.annotations = null;
+            if (json.has("bouncer")) {
+                JsonObject bounce = json.getAsJsonObject("bouncer");
+                this.bouncer = new Bouncer(symbols.canonical(bounce.get("name").getAsString()), symbols.canonical(bounce.get("desc").getAsString()));
+            } else
+                this.bouncer = null;
+            this.override = json.has("override") ? symbols.canonical(json.get("override").getAsString()) : null;
+            this.annotations = getAnnotations(symbols, json.get("annotations"));
         }
 
-        MethodInfo(ClassInfo parent, Constructor<?> node, boolean annotations) {
-            this.name = "<init>";
-            this.desc = Type.getConstructorDescriptor(node);
-            this.access = node.getModifiers();
-            List<String> execs = new ArrayList<>();
-            for (Class<?> e : node.getExceptionTypes())
-                execs.add(e.getName().replace('.', '/'));
-            this.exceptions = execs.isEmpty() ? null : execs;
+        MethodInfo(SymbolTable symbols, ClassInfo parent, InheritanceDatabase.MethodEntry entry) {
+            int nameId = symbols.intern(entry.getName());
+            int descId = symbols.intern(entry.getDesc());
+            this.name = symbols.get(nameId);
+            this.desc = symbols.get(descId);
+            this.key = SymbolTable.key(nameId, descId);
+            this.access = entry.getAccess();
+            this.exceptions = canonical(symbols, entry.getExceptions());
             this.parent = parent;
-            this.bouncer = null;
+            this.bouncer = entry.getBouncerName() == null ? null : new Bouncer(symbols.canonical(entry.getBouncerName()), symbols.canonical(entry.getBouncerDesc()));
+            this.override = symbols.canonical(entry.getOverride());
+            this.annotations = getAnnotations(symbols, entry.getAnnotations());
+        }
 
-            if (annotations)
-                this.annotations = getAnnotations(node.getDeclaredAnnotations());
-            else
-                this.annotations = null;
+        MethodInfo(SymbolTable symbols, ClassInfo parent, DataInput in) throws IOException {
+            int nameId = symbols.intern(in.readUTF());
+            int descId = symbols.intern(in.readUTF());
+            this.name = symbols.get(nameId);
+            this.desc = symbols.get(descId);
+            this.key = SymbolTable.key(nameId, descId);
+            this.access = in.readInt();
+            this.exceptions = readStrings(symbols, in);
+            this.parent = parent;
+            String bounceName = readString(in);
+            this.bouncer = bounceName == null ? null : new Bouncer(symbols.canonical(bounceName), symbols.canonical(in.readUTF()));
+            this.override = symbols.canonical(readString(in));
+            this.annotations = readAnnotations(symbols, in);
         }
 
         public ClassInfo getParent() {
@@ -430,6 +1501,58 @@ public class ExtractInheritance extends Task {
         public String getDesc() {
             return desc;
         }
+
+        // Compares as if we were the string name + ' ' + desc, without building it.
+        static int compareKey(MethodInfo a, MethodInfo b) {
+            int lenA = a.name.length() + 1 + a.desc.length();
+            int lenB = b.name.length() + 1 + b.desc.length();
+            int max = Math.min(lenA, lenB);
+            for (int x = 0; x < max; x++) {
+                char ca = a.charAt(x);
+                char cb = b.charAt(x);
+                if (ca != cb)
+                    return ca - cb;
+            }
+            return lenA - lenB;
+        }
+
+        private char charAt(int idx) {
+            if (idx < name.length())
+                return name.charAt(idx);
+            if (idx == name.length())
+                return ' ';
+            return desc.charAt(idx - name.length() - 1);
+        }
+
+        void write(JsonWriter out, int family) throws IOException {
+            out.beginObject();
+            out.name("access").value(access);
+            writeStrings(out, "exceptions", exceptions);
+            if (bouncer != null) {
+                out.name("bouncer").beginObject();
+                out.name("name").value(bouncer.name);
+                out.name("desc").value(bouncer.desc);
+                out.endObject();
+            }
+            if (override != null)
+                out.name("override").value(override);
+            if (family != -1)
+                out.name("family").value(family);
+            writeAnnotations(out, annotations);
+            out.endObject();
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeUTF(name);
+            out.writeUTF(desc);
+            out.writeInt(access);
+            writeStrings(out, exceptions);
+            writeString(out, bouncer == null ? null : bouncer.name);
+            if (bouncer != null)
+                out.writeUTF(bouncer.desc);
+            writeString(out, override);
+            writeAnnotations(out, annotations);
+        }
     }
 
     public static class Bouncer {
@@ -442,24 +1565,114 @@ public class ExtractInheritance extends Task {
     }
 
     @SafeVarargs
-    private static List<AnnotationInfo> getAnnotations(List<AnnotationNode>... lists) {
+    private static List<AnnotationInfo> getAnnotations(SymbolTable symbols, List<AnnotationNode>... lists) {
         List<AnnotationInfo> ret = new ArrayList<>();
         for (List<AnnotationNode> list : lists) {
             if (list != null) {
-                list.stream().map(AnnotationInfo::new).forEach(ret::add);
+                list.stream().map(node -> new AnnotationInfo(symbols.canonical(node.desc))).forEach(ret::add);
             }
         }
         Collections.sort(ret);
         return ret.isEmpty() ? null : ret;
     }
 
-    private static List<AnnotationInfo> getAnnotations(Annotation[] anns) {
+    private static List<AnnotationInfo> getAnnotations(SymbolTable symbols, JsonElement json) {
+        if (json == null)
+            return null;
+        List<AnnotationInfo> ret = new ArrayList<>();
+        for (JsonElement ann : json.getAsJsonArray())
+            ret.add(new AnnotationInfo(symbols.canonical(ann.getAsJsonObject().get("desc").getAsString())));
+        return ret;
+    }
+
+    private static List<AnnotationInfo> getAnnotations(SymbolTable symbols, List<String> descs) {
+        if (descs.isEmpty())
+            return null;
         List<AnnotationInfo> ret = new ArrayList<>();
-        if (anns != null && anns.length > 0) {
-            Arrays.stream(anns).map(AnnotationInfo::new).forEach(ret::add);
+        descs.forEach(desc -> ret.add(new AnnotationInfo(symbols.canonical(desc))));
+        return ret;
+    }
+
+    private static List<String> toStrings(SymbolTable symbols, JsonElement json) {
+        if (json == null)
+            return null;
+        List<String> ret = new ArrayList<>();
+        for (JsonElement value : json.getAsJsonArray())
+            ret.add(symbols.canonical(value.getAsString()));
+        return ret;
+    }
+
+    private static List<String> canonical(SymbolTable symbols, List<String> values) {
+        if (values == null || values.isEmpty())
+            return null;
+        List<String> ret = new ArrayList<>(values.size());
+        values.forEach(value -> ret.add(symbols.canonical(value)));
+        return ret;
+    }
+
+    private static void writeStrings(JsonWriter out, String name, List<String> values) throws IOException {
+        if (values == null)
+            return;
+        out.name(name).beginArray();
+        for (String value : values)
+            out.value(value);
+        out.endArray();
+    }
+
+    private static void writeAnnotations(JsonWriter out, List<AnnotationInfo> annotations) throws IOException {
+        if (annotations == null)
+            return;
+        out.name("annotations").beginArray();
+        for (AnnotationInfo ann : annotations)
+            out.beginObject().name("desc").value(ann.desc).endObject();
+        out.endArray();
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    // Null is written as -1 so that it round trips separately from an empty list
+    private static void writeStrings(DataOutput out, List<String> values) throws IOException {
+        out.writeInt(values == null ? -1 : values.size());
+        if (values != null) {
+            for (String value : values)
+                out.writeUTF(value);
+        }
+    }
+
+    private static List<String> readStrings(SymbolTable symbols, DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count == -1)
+            return null;
+        List<String> ret = new ArrayList<>(count);
+        for (int x = 0; x < count; x++)
+            ret.add(symbols.canonical(in.readUTF()));
+        return ret;
+    }
+
+    private static void writeAnnotations(DataOutput out, List<AnnotationInfo> annotations) throws IOException {
+        out.writeInt(annotations == null ? -1 : annotations.size());
+        if (annotations != null) {
+            for (AnnotationInfo ann : annotations)
+                out.writeUTF(ann.desc);
         }
-        Collections.sort(ret);
-        return ret.isEmpty() ? null : ret;
+    }
+
+    private static List<AnnotationInfo> readAnnotations(SymbolTable symbols, DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count == -1)
+            return null;
+        List<AnnotationInfo> ret = new ArrayList<>(count);
+        for (int x = 0; x < count; x++)
+            ret.add(new AnnotationInfo(symbols.canonical(in.readUTF())));
+        return ret;
     }
 
     // I don't feel like extracting values right now because of their weird infinitely nestable types.
@@ -468,11 +1681,8 @@ public class ExtractInheritance extends Task {
     // -Lex 05/16/22
     public static class AnnotationInfo implements Comparable<AnnotationInfo> {
         public final String desc;
-        private AnnotationInfo(AnnotationNode node) {
-            this.desc = node.desc;
-        }
-        private AnnotationInfo(Annotation node) {
-            this.desc = Type.getDescriptor(node.annotationType());
+        private AnnotationInfo(String desc) {
+            this.desc = desc;
         }
 
         @Override
@@ -481,6 +1691,34 @@ public class ExtractInheritance extends Task {
         }
     }
 
+    // Everything that a previous output depends on besides the input classes themselves.
+    private static class Hashes {
+        public String jdk;
+        public boolean annotations;
+        public List<String> libs = new ArrayList<>();
+        public Map<String, String> classes = new TreeMap<>();
+
+        @SuppressWarnings("unused") // Gson
+        Hashes() {}
+
+        Hashes(boolean annotations, List<File> libs) throws IOException {
+            this.jdk = System.getProperty("java.version");
+            this.annotations = annotations;
+            for (File lib : libs)
+                this.libs.add(HashFunction.SHA1.hash(lib));
+        }
+
+        String getMismatch(Hashes other) {
+            if (!Objects.equals(jdk, other.jdk))
+                return "JDK changed from " + other.jdk + " to " + jdk;
+            if (annotations != other.annotations)
+                return "annotation setting changed";
+            if (!Objects.equals(libs, other.libs))
+                return "libraries changed";
+            return null;
+        }
+    }
+
     public static <T, K, U> Collector<T, ?, Map<K,U>> toTreeMap(Function<? super T, ? extends K> keyMapper, Function<? super T, ? extends U> valueMapper) {
         return Collectors.toMap(keyMapper, valueMapper, (u,v) -> { throw new IllegalStateException(String.format("Duplicate key %s", u)); }, TreeMap::new);
     }
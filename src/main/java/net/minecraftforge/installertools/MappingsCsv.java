@@ -7,15 +7,17 @@ package net.minecraftforge.installertools;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.List;
-import java.util.Map;
 import java.util.TimeZone;
-import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -23,11 +25,15 @@ import joptsimple.OptionException;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
+import net.minecraftforge.installertools.util.MappingCache;
+import net.minecraftforge.installertools.util.ZipEntries;
 import net.minecraftforge.srgutils.IMappingFile;
 
 public class MappingsCsv extends Task {
+    // Unused, zip entry times no longer switch the default time zone, see ZipEntries
+    @Deprecated
     public static final TimeZone GMT = TimeZone.getTimeZone("GMT");
-    public static final long ZIPTIME = 628041600000L;
+    public static final long ZIPTIME = ZipEntries.STABLE_TIME;
 
     @Override
     public void process(String[] args) throws IOException {
@@ -65,53 +71,32 @@ public class MappingsCsv extends Task {
                 error("Server does not exist: " + server);
 
 
-            IMappingFile pg_client = IMappingFile.load(client);
-            IMappingFile pg_server = IMappingFile.load(server);
-            IMappingFile srg = IMappingFile.load(map);
-
-            Map<String, String> cfields = new TreeMap<>();
-            Map<String, String> sfields = new TreeMap<>();
-            Map<String, String> cmethods = new TreeMap<>();
-            Map<String, String> smethods = new TreeMap<>();
-            gatherNames(srg, pg_client, cfields, cmethods);
-            gatherNames(srg, pg_server, sfields, smethods);
-
-            String[] header = new String[] {"searge", "name", "side", "desc"};
-            List<String[]> fields = new ArrayList<>();
-            List<String[]> methods = new ArrayList<>();
-            fields.add(header);
-            methods.add(header);
-
-            for (String name : cfields.keySet()) {
-                String cname = cfields.get(name);
-                String sname = sfields.get(name);
-                if (cname.equals(sname)) {
-                    fields.add(new String[]{name, cname, "2", ""});
-                    sfields.remove(name);
-                } else
-                    fields.add(new String[]{name, cname, "0", ""});
+            /*
+             * The three files are independent, so they are loaded at once, each into its own tree. After that every tree is only
+             * used from this thread, srgutils isn't documented as safe to read one tree from several threads and both sides need the SRG.
+             */
+            IMappingFile srg, pgClient, pgServer;
+            ExecutorService executor = Executors.newFixedThreadPool(3);
+            try {
+                Future<IMappingFile> srgF = executor.submit(() -> MappingCache.load(map));
+                Future<IMappingFile> clientF = executor.submit(() -> MappingCache.load(client));
+                Future<IMappingFile> serverF = executor.submit(() -> MappingCache.load(server));
+                srg = get(srgF);
+                pgClient = get(clientF);
+                pgServer = get(serverF);
+            } finally {
+                executor.shutdownNow();
             }
 
-            for (String name : cmethods.keySet()) {
-                String cname = cmethods.get(name);
-                String sname = smethods.get(name);
-                if (cname.equals(sname)) {
-                    methods.add(new String[]{name, cname, "2", ""});
-                    smethods.remove(name);
-                } else
-                    methods.add(new String[]{name, cname, "0", ""});
-            }
-
-            sfields.forEach((k,v) -> fields.add(new String[] {k, v, "1", ""}));
-            smethods.forEach((k,v) -> methods.add(new String[] {k, v, "1", ""}));
+            Names[] cnames = gatherNames(srg, pgClient);
+            Names[] snames = gatherNames(srg, pgServer);
 
             try (FileOutputStream fos = new FileOutputStream(output);
                     ZipOutputStream out = new ZipOutputStream(fos)) {
-                writeCsv("fields.csv", fields, out);
-                writeCsv("methods.csv", methods, out);
+                CsvWriter csv = new CsvWriter(out);
+                writeCsv("fields.csv", cnames[0], snames[0], csv, out);
+                writeCsv("methods.csv", cnames[1], snames[1], csv, out);
             }
-
-
         } catch (OptionException e) {
             parser.printHelpOn(System.out);
             e.printStackTrace();
@@ -129,7 +114,24 @@ public class MappingsCsv extends Task {
         return path.delete();
     }
 
-    private void gatherNames(IMappingFile srg, IMappingFile official, Map<String, String> fields, Map<String, String> methods) {
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException)e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // Returns the field and method names
+    private static Names[] gatherNames(IMappingFile srg, IMappingFile official) {
+        Names fields = new Names();
+        Names methods = new Names();
         for (IMappingFile.IClass cls : official.getClasses()) {
             IMappingFile.IClass obf = srg.getClass(cls.getMapped());
             if (obf == null) // Class exists in official source, but doesn't make it past obfusication so it's not in our mappings.
@@ -138,49 +140,147 @@ public class MappingsCsv extends Task {
             for (IMappingFile.IField fld : cls.getFields()) {
                 String name = obf.remapField(fld.getMapped());
                 if (name.startsWith("field_") || name.startsWith("f_"))
-                    fields.put(name, fld.getOriginal());
+                    fields.add(name, fld.getOriginal());
             }
 
             for (IMappingFile.IMethod mtd : cls.getMethods()) {
                 String name = obf.remapMethod(mtd.getMapped(), mtd.getMappedDescriptor());
                 if (name.startsWith("func_") || name.startsWith("m_"))
-                    methods.put(name, mtd.getOriginal());
+                    methods.add(name, mtd.getOriginal());
             }
         }
+        fields.sort();
+        methods.sort();
+        return new Names[] { fields, methods };
     }
 
+    /*
+     * Searge name to official name pairs, sorted by searge name.
+     * When a searge name was found more than once the last one wins, same as putting them all in a map.
+     */
+    private static class Names {
+        private String[] keys = new String[1024];
+        private String[] values = new String[1024];
+        private int size = 0;
+
+        private void add(String key, String value) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            keys[size] = key;
+            values[size] = value;
+            size++;
+        }
+
+        private void sort() {
+            // Sorting indexes is stable, so later duplicates stay after earlier ones
+            Integer[] order = new Integer[size];
+            for (int x = 0; x < size; x++)
+                order[x] = x;
+            String[] k = keys;
+            Arrays.sort(order, (a, b) -> k[a].compareTo(k[b]));
+
+            String[] nkeys = new String[size];
+            String[] nvalues = new String[size];
+            int count = 0;
+            for (int x = 0; x < size; x++) {
+                int idx = order[x];
+                if (count > 0 && nkeys[count - 1].equals(keys[idx]))
+                    count--;
+                nkeys[count] = keys[idx];
+                nvalues[count] = values[idx];
+                count++;
+            }
+            keys = nkeys;
+            values = nvalues;
+            size = count;
+        }
+    }
 
     public static ZipEntry getStableEntry(String name) {
         return getStableEntry(name, ZIPTIME);
     }
 
     public static ZipEntry getStableEntry(String name, long time) {
-        TimeZone _default = TimeZone.getDefault();
-        TimeZone.setDefault(GMT);
-        ZipEntry ret = new ZipEntry(name);
-        ret.setTime(time);
-        TimeZone.setDefault(_default);
-        return ret;
+        return ZipEntries.stable(name, time);
     }
 
 
-    protected static void writeCsv(String name, List<String[]> mappings, ZipOutputStream out) throws IOException {
-        if (mappings.size() <= 1)
+    /*
+     * Merge joins the sorted client and server names. Client rows come first, as both sides when the server has the same name
+     * for it, then whatever the server had left over.
+     */
+    private static void writeCsv(String name, Names client, Names server, CsvWriter csv, ZipOutputStream out) throws IOException {
+        if (client.size == 0 && server.size == 0)
             return;
 
         out.putNextEntry(getStableEntry(name));
+        csv.row("searge", "name", "side", "desc");
+
+        boolean[] both = new boolean[server.size];
+        int s = 0;
+        for (int c = 0; c < client.size; c++) {
+            String key = client.keys[c];
+            while (s < server.size && server.keys[s].compareTo(key) < 0)
+                s++;
+            if (s < server.size && server.keys[s].equals(key) && server.values[s].equals(client.values[c])) {
+                both[s] = true;
+                csv.row(key, client.values[c], "2", "");
+            } else
+                csv.row(key, client.values[c], "0", "");
+        }
 
-        byte[] comma = ",".getBytes(StandardCharsets.UTF_8);
-        byte[] lf = "\n".getBytes(StandardCharsets.UTF_8);
+        for (s = 0; s < server.size; s++) {
+            if (!both[s])
+                csv.row(server.keys[s], server.values[s], "1", "");
+        }
+
+        csv.flush();
+        out.closeEntry();
+    }
 
-        for (String[] row : mappings) {
-            for (int x = 0; x < row.length; x++) {
-                out.write(row[x].getBytes(StandardCharsets.UTF_8));
-                if (x != row.length - 1)
-                    out.write(comma);
+    // Encodes rows into one reused buffer instead of a byte array per cell
+    private static class CsvWriter {
+        private final OutputStream out;
+        private byte[] buf = new byte[0x2000];
+        private int len = 0;
+
+        private CsvWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        private void row(String... cells) throws IOException {
+            for (int x = 0; x < cells.length; x++) {
+                write(cells[x]);
+                put(x == cells.length - 1 ? '\n' : ',');
             }
-            out.write(lf);
+            if (len >= 0x1000)
+                flush();
+        }
+
+        private void write(String value) throws IOException {
+            for (int x = 0; x < value.length(); x++) {
+                char c = value.charAt(x);
+                if (c >= 0x80) {
+                    byte[] data = value.substring(x).getBytes(StandardCharsets.UTF_8);
+                    for (byte b : data)
+                        put(b);
+                    return;
+                }
+                put(c);
+            }
+        }
+
+        private void put(int b) throws IOException {
+            if (len == buf.length)
+                buf = Arrays.copyOf(buf, len * 2);
+            buf[len++] = (byte)b;
+        }
+
+        private void flush() throws IOException {
+            out.write(buf, 0, len);
+            len = 0;
         }
-        out.closeEntry();
     }
 }
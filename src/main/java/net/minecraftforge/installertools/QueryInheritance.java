@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installertools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import net.minecraftforge.installertools.util.InheritanceDatabase;
+import net.minecraftforge.installertools.util.InheritanceDatabase.MethodEntry;
+
+// Answers hierarchy questions from the binary output of EXTRACT_INHERITANCE without re-reading any jars.
+public class QueryInheritance extends Task {
+
+    @Override
+    public void process(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> dbO = parser.accepts("db", "Binary database created by EXTRACT_INHERITANCE --binary").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> outputO = parser.accepts("output", "Output file, if not specified results are logged").withRequiredArg().ofType(File.class);
+        OptionSpec<String> subtypesO = parser.accepts("subtypes", "Class to list every subclass and subinterface of").withRequiredArg().ofType(String.class);
+        OptionSpec<String> implementorsO = parser.accepts("implementors", "Interface to list every implementing class of").withRequiredArg().ofType(String.class);
+        OptionSpec<String> overridersO = parser.accepts("overriders", "Method to list every override of, in the form owner.name(desc)").withRequiredArg().ofType(String.class);
+        OptionSpec<Void> loadO = parser.accepts("load", "Read the database into memory instead of mapping it");
+
+        try {
+            OptionSet options = parser.parse(args);
+
+            File db = options.valueOf(dbO);
+            File output = options.has(outputO) ? options.valueOf(outputO) : null;
+
+            log("Database: " + db);
+            if (output != null)
+                log("Output:   " + output);
+
+            if (!db.exists())
+                error("Could not find database: " + db);
+
+            InheritanceDatabase data = options.has(loadO) ? InheritanceDatabase.load(db.toPath()) : InheritanceDatabase.open(db.toPath());
+            log("Classes:  " + data.getClassCount());
+
+            List<String> lines = new ArrayList<>();
+            for (String cls : options.valuesOf(subtypesO)) {
+                lines.add("subtypes " + cls);
+                for (String sub : data.getSubtypes(cls))
+                    lines.add("\t" + sub);
+            }
+
+            for (String cls : options.valuesOf(implementorsO)) {
+                lines.add("implementors " + cls);
+                for (String sub : data.getImplementors(cls))
+                    lines.add("\t" + sub);
+            }
+
+            for (String mtd : options.valuesOf(overridersO)) {
+                int desc = mtd.indexOf('(');
+                int name = desc == -1 ? -1 : mtd.lastIndexOf('.', desc);
+                if (name == -1)
+                    error("Invalid method, expected owner.name(desc): " + mtd);
+
+                lines.add("overriders " + mtd);
+                for (MethodEntry sub : data.getOverriders(mtd.substring(0, name), mtd.substring(name + 1, desc), mtd.substring(desc)))
+                    lines.add("\t" + sub);
+            }
+
+            if (output == null) {
+                lines.forEach(this::log);
+            } else {
+                if (output.getParentFile() != null && !output.getParentFile().exists())
+                    output.getParentFile().mkdirs();
+                Files.write(output.toPath(), lines, StandardCharsets.UTF_8);
+            }
+        } catch (OptionException e) {
+            parser.printHelpOn(System.out);
+            e.printStackTrace();
+        }
+    }
+}
@@ -11,7 +11,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.file.Files;
-import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -38,6 +37,7 @@ import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import net.minecraftforge.installertools.util.Utils;
+import net.minecraftforge.installertools.util.ZipEntries;
 
 public class SrgMcpRenamer extends Task {
     @Override
@@ -111,7 +111,7 @@ public class SrgMcpRenamer extends Task {
             }
 
             ZipWritingConsumer defaultProcessor = (ein, zin, zout) -> {
-                zout.putNextEntry(makeNewEntry(ein));
+                zout.putNextEntry(ZipEntries.copy(ein));
                 Utils.copy(zin, zout);
             };
 
@@ -174,7 +174,7 @@ public class SrgMcpRenamer extends Task {
             log(String.format("Could not process class: %s, skipping", e.getLocalizedMessage()));
         }
 
-        zout.putNextEntry(makeNewEntry(ein));
+        zout.putNextEntry(ZipEntries.copy(ein));
         zout.write(data);
     }
 
@@ -194,13 +194,13 @@ public class SrgMcpRenamer extends Task {
             }
         });
 
-        zout.putNextEntry(makeNewEntry(ein));
+        zout.putNextEntry(ZipEntries.copy(ein));
         mout.write(zout);
         log("Stripped Manifest of sha digests");
     }
 
     private void processNestedJar(List<ZipEntryProcessor> processors, ZipWritingConsumer defaultProcessor, ZipEntry ein, ZipInputStream in, ZipOutputStream zout) throws IOException {
-        zout.putNextEntry(makeNewEntry(ein));
+        zout.putNextEntry(ZipEntries.copy(ein));
         ZipInputStream nestedIn = new ZipInputStream(in);
         ZipOutputStream nestedOut = new ZipOutputStream(zout);
         process(processors, defaultProcessor, nestedIn, nestedOut);
@@ -211,24 +211,6 @@ public class SrgMcpRenamer extends Task {
         return ein.getName().startsWith("META-INF/") && (ein.getName().endsWith(".SF") || ein.getName().endsWith(".RSA"));
     }
 
-    private ZipEntry makeNewEntry(ZipEntry oldEntry) {
-        ZipEntry newEntry = new ZipEntry(oldEntry.getName());
-
-        // This is mandatory
-        if (oldEntry.getLastModifiedTime() != null) {
-            newEntry.setLastModifiedTime(oldEntry.getLastModifiedTime());
-        } else {
-            newEntry.setLastModifiedTime(FileTime.fromMillis(0x386D4380)); //01/01/2000 00:00:00 java 8 breaks when using 0.
-        }
-
-        // Optional arguments
-        if (oldEntry.getCreationTime() != null) newEntry.setCreationTime(oldEntry.getCreationTime());
-        if (oldEntry.getLastAccessTime() != null) newEntry.setLastAccessTime(oldEntry.getLastAccessTime());
-        if (oldEntry.getComment() != null) newEntry.setComment(oldEntry.getComment());
-
-        return newEntry;
-    }
-
     private static class ZipEntryProcessor {
         private final Predicate<ZipEntry> validator;
         private final ZipWritingConsumer consumer;
@@ -17,7 +17,8 @@ public enum Tasks {
     DOWNLOAD_MOJMAPS(DownloadMojmaps::new),
     EXTRACT_FILES(ExtractFiles::new),
     BUNDLER_EXTRACT(BundlerExtract::new),
-    MAPPINGS_CSV(MappingsCsv::new)
+    MAPPINGS_CSV(MappingsCsv::new),
+    QUERY_INHERITANCE(QueryInheritance::new)
     ;
 
     private Supplier<? extends Task> supplier;
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installertools.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/*
+ * Downloads files so that a flaky connection doesn't mean starting over.
+ * Data goes to a .part file next to the target, which later attempts, in this run or the next, resume with a Range request.
+ * Failures of the connection or the server are retried with exponential backoff, local ones like a full disk fail straight away.
+ * The sha1 is computed as data arrives, with whatever was already in the .part file hashed first, and only a file that matches is moved into place.
+ */
+public class Downloader {
+    private static final int CONNECT_TIMEOUT = 30_000;
+    private static final int READ_TIMEOUT = 60_000;
+    private static final long MAX_BACKOFF = 30_000;
+    private static final long PROGRESS_INTERVAL = 2_000_000_000L; // Nanoseconds
+
+    private final Consumer<String> log;
+    private final int retries;
+    private final long backoff;
+
+    // Backoff is the wait in milliseconds before the first retry, doubled for every one after that
+    public Downloader(Consumer<String> log, int retries, long backoff) {
+        this.log = log;
+        this.retries = retries;
+        this.backoff = backoff;
+    }
+
+    // Null sha1 or negative size skip that check
+    public void download(URL url, Path target, String sha1, long size) throws IOException {
+        download(url, target, target.resolveSibling(target.getFileName() + ".part"), sha1, size);
+    }
+
+    // Same as above, with the caller picking the .part file, anything already in it is resumed
+    public void download(URL url, Path target, Path part, String sha1, long size) throws IOException {
+        String name = getName(url, target.getFileName().toString());
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+
+        retry(url, () -> {
+            attempt(url, part, name, sha1, size);
+            return null;
+        });
+
+        try {
+            Files.move(part, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Whole body of a small file, like a json, that isn't worth a .part file
+    public byte[] read(URL url) throws IOException {
+        return retry(url, () -> {
+            URLConnection con = connect(url);
+            if (con instanceof HttpURLConnection) {
+                HttpURLConnection http = (HttpURLConnection)con;
+                int code = network(http::getResponseCode);
+                if (code != HttpURLConnection.HTTP_OK) {
+                    http.disconnect();
+                    throw statusError(url, http, code);
+                }
+            }
+            try (InputStream in = open(con)) {
+                return Utils.toByteArray(in);
+            }
+        });
+    }
+
+    // Runs action until it succeeds, it fails with anything but a network error, or we run out of retries
+    public <T> T retry(URL url, Action<T> action) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return action.run();
+            } catch (NetworkException e) {
+                if (attempt >= retries)
+                    throw new IOException("Failed to download " + url + " after " + (attempt + 1) + " attempts: " + e.getMessage(), e);
+                long wait = Math.min(MAX_BACKOFF, backoff << Math.min(attempt, 20));
+                log.accept("Download of " + getName(url, url.toString()) + " failed: " + e.getMessage() + ", retrying in " + wait + "ms");
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while downloading " + url, ie);
+                }
+            }
+        }
+    }
+
+    // With our timeouts, so a stalled server fails the attempt instead of hanging forever
+    public static URLConnection connect(URL url) throws IOException {
+        URLConnection con = url.openConnection();
+        con.setConnectTimeout(CONNECT_TIMEOUT);
+        con.setReadTimeout(READ_TIMEOUT);
+        return con;
+    }
+
+    // Only server trouble is worth retrying, anything else like a 404 will fail the same way every time
+    static IOException statusError(URL url, HttpURLConnection http, int code) throws IOException {
+        String msg = "Failed to download " + url + ": " + code + " " + network(http::getResponseMessage);
+        if (code == 408 || code == 429 || code >= 500)
+            return new NetworkException(msg, null);
+        return new IOException(msg);
+    }
+
+    // Runs something that talks to the server, so that any failure is one retry will try again
+    static <T> T network(Action<T> action) throws IOException {
+        try {
+            return action.run();
+        } catch (NetworkException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new NetworkException(e.getMessage(), e);
+        }
+    }
+
+    // The response body, failing to read it is a network error, so the copy it's used in can still fail locally without a retry
+    static InputStream open(URLConnection con) throws IOException {
+        return network(network(con::getInputStream));
+    }
+
+    // Every failure reading in is a network error, for streams that come from the server or check what it sent
+    static InputStream network(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                return network(super::read);
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return network(() -> super.read(b, off, len));
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                return network(() -> super.skip(n));
+            }
+
+            @Override
+            public int available() throws IOException {
+                return network(super::available);
+            }
+        };
+    }
+
+    private static String getName(URL url, String fallback) {
+        String name = url.getPath().substring(url.getPath().lastIndexOf('/') + 1);
+        return name.isEmpty() ? fallback : name;
+    }
+
+    private void attempt(URL url, Path part, String name, String sha1, long size) throws IOException {
+        long existing = Files.isRegularFile(part) ? Files.size(part) : 0;
+        if (size >= 0 && existing > size) {
+            Files.delete(part);
+            existing = 0;
+        }
+
+        MessageDigest digest = HashFunction.SHA1.get();
+        if (size >= 0 && existing == size) {
+            // Finished last time but never moved into place
+            hash(part, digest);
+            verify(part, digest, existing, sha1, size);
+            return;
+        }
+
+        URLConnection con = connect(url);
+        HttpURLConnection http = con instanceof HttpURLConnection ? (HttpURLConnection)con : null;
+        if (http != null && existing > 0)
+            http.setRequestProperty("Range", "bytes=" + existing + "-");
+
+        boolean append = false;
+        if (http != null) {
+            int code = network(http::getResponseCode);
+            if (code == HttpURLConnection.HTTP_PARTIAL && existing > 0) {
+                // Only good if it carries on exactly where we stopped, anything else and the next attempt starts from zero
+                long from = getRangeStart(http.getHeaderField("Content-Range"));
+                if (from != existing) {
+                    http.disconnect();
+                    Files.deleteIfExists(part);
+                    throw new NetworkException("Server resumed at " + (from == -1 ? "an unknown offset" : from + " bytes") + " instead of " + existing + " bytes", null);
+                }
+                append = true;
+            } else if (code == 416) { // Range Not Satisfiable, what we have is no good so start over
+                http.disconnect();
+                Files.deleteIfExists(part);
+                throw new NetworkException("Server rejected resuming at " + existing + " bytes", null);
+            } else if (code != HttpURLConnection.HTTP_OK) {
+                http.disconnect();
+                throw statusError(url, http, code);
+            }
+        }
+
+        long total = append ? existing : 0;
+        if (append) {
+            hash(part, digest);
+            log.accept("Resuming " + name + " at " + format(existing));
+        }
+
+        long start = System.nanoTime();
+        long lastLog = start;
+        long received = 0;
+        try (InputStream in = open(con);
+             OutputStream out = Files.newOutputStream(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE, append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] buf = new byte[0x10000];
+            int count;
+            while ((count = in.read(buf)) != -1) {
+                out.write(buf, 0, count);
+                digest.update(buf, 0, count);
+                received += count;
+                total += count;
+
+                long now = System.nanoTime();
+                if (now - lastLog >= PROGRESS_INTERVAL) {
+                    lastLog = now;
+                    log.accept("Downloading " + name + ": " + format(total) + (size >= 0 ? " of " + format(size) : "") + " at " + rate(received, now - start));
+                }
+            }
+        }
+
+        log.accept("Downloaded " + name + ": " + format(received) + " in " + String.format(Locale.ENGLISH, "%.1fs", (System.nanoTime() - start) / 1e9) + " at " + rate(received, System.nanoTime() - start));
+        verify(part, digest, total, sha1, size);
+    }
+
+    // First byte of a "bytes first-last/total" Content-Range, -1 if it's missing or in any other form
+    private static long getRangeStart(String header) {
+        if (header == null || !header.startsWith("bytes "))
+            return -1;
+        int idx = header.indexOf('-');
+        if (idx == -1)
+            return -1;
+        try {
+            return Long.parseLong(header.substring(6, idx).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void hash(Path file, MessageDigest digest) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buf = new byte[0x10000];
+            int count;
+            while ((count = in.read(buf)) != -1)
+                digest.update(buf, 0, count);
+        }
+    }
+
+    // A bad file is deleted, so the retry starts from scratch instead of resuming something broken
+    private static void verify(Path part, MessageDigest digest, long total, String sha1, long size) throws IOException {
+        if (size >= 0 && total != size) {
+            if (total > size)
+                Files.deleteIfExists(part);
+            throw new NetworkException("Size mismatch, expected " + size + " bytes but got " + total, null);
+        }
+
+        String actual = HashFunction.SHA1.pad(new BigInteger(1, digest.digest()).toString(16));
+        if (sha1 != null && !sha1.equalsIgnoreCase(actual)) {
+            Files.deleteIfExists(part);
+            throw new NetworkException("Hash mismatch, expected " + sha1 + " but got " + actual, null);
+        }
+    }
+
+    private static String format(long bytes) {
+        if (bytes < 1024)
+            return bytes + "B";
+        if (bytes < 1024 * 1024)
+            return String.format(Locale.ENGLISH, "%.1fKB", bytes / 1024.0);
+        return String.format(Locale.ENGLISH, "%.1fMB", bytes / (1024.0 * 1024.0));
+    }
+
+    private static String rate(long bytes, long nanos) {
+        return format((long)(bytes / Math.max(nanos / 1e9, 0.001))) + "/s";
+    }
+
+    public interface Action<T> {
+        T run() throws IOException;
+    }
+
+    // Failures of the connection or the server, or data that doesn't match what we expected, the only ones worth retrying
+    static class NetworkException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NetworkException(String message, IOException cause) {
+            super(message, cause);
+        }
+    }
+}
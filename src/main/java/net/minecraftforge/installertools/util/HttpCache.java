@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installertools.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+/*
+ * Local copy of HTTP responses, keyed by URL.
+ * The ETag and Last-Modified headers are stored next to each body and sent back as a conditional request, so an unchanged
+ * resource only costs a 304. Resources that can never change, like Mojang's content addressed downloads, are not even revalidated.
+ */
+public class HttpCache {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    private final Path root;
+
+    public HttpCache(File root) {
+        this.root = root.getAbsoluteFile().toPath();
+    }
+
+    public Path get(URL url, boolean immutable) throws IOException {
+        return get(url, immutable, null, -1);
+    }
+
+    /*
+     * Path of the up to date body for url, downloading it if needed.
+     * With a sha1 the download is verified as it is written, and a cached body is only used if it was stored with that hash.
+     */
+    public Path get(URL url, boolean immutable, String sha1, long size) throws IOException {
+        return get(url, immutable, sha1, size, null);
+    }
+
+    // Immutable bodies with a known sha1 can be fetched by downloader, which resumes and retries them
+    public Path get(URL url, boolean immutable, String sha1, long size, Downloader downloader) throws IOException {
+        String key = HashFunction.SHA1.hash(url.toString());
+        Path body = root.resolve(key + ".body");
+        Path metaPath = root.resolve(key + ".json");
+
+        Meta meta = readMeta(metaPath);
+        boolean cached = meta != null && url.toString().equals(meta.url) && Files.isRegularFile(body) && (sha1 == null || sha1.equalsIgnoreCase(meta.sha1));
+        if (cached && immutable)
+            return body;
+
+        if (immutable && sha1 != null && downloader != null) {
+            // A part file of our own, as other jobs and runs may be downloading the same body into this folder
+            Files.createDirectories(root);
+            Path part = Files.createTempFile(root, key, ".part");
+            try {
+                downloader.download(url, body, part, sha1, size);
+            } finally {
+                Files.deleteIfExists(part);
+            }
+            Meta updated = new Meta();
+            updated.url = url.toString();
+            updated.sha1 = sha1;
+            writeMeta(metaPath, key, updated);
+            return body;
+        }
+
+        URLConnection con = Downloader.connect(url);
+        HttpURLConnection http = con instanceof HttpURLConnection ? (HttpURLConnection)con : null;
+        if (http != null && cached) {
+            if (meta.etag != null)
+                http.setRequestProperty("If-None-Match", meta.etag);
+            if (meta.lastModified != null)
+                http.setRequestProperty("If-Modified-Since", meta.lastModified);
+        }
+
+        if (http != null) {
+            int code = Downloader.network(http::getResponseCode);
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached) {
+                drain(http);
+                return body;
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                drain(http);
+                throw Downloader.statusError(url, http, code);
+            }
+        }
+
+        Files.createDirectories(root);
+        Path tmp = Files.createTempFile(root, key, ".tmp");
+        String hash;
+        try {
+            // A body that doesn't match counts as a network error, same as one that fails to arrive
+            VerifyingInputStream verifying = new VerifyingInputStream(Downloader.open(con), sha1, size);
+            try (InputStream in = Downloader.network(verifying)) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                hash = verifying.getHash();
+            } catch (Downloader.NetworkException e) {
+                throw new Downloader.NetworkException("Failed to download " + url + ": " + e.getMessage(), e);
+            }
+            move(tmp, body);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        Meta updated = new Meta();
+        updated.url = url.toString();
+        updated.etag = con.getHeaderField("ETag");
+        updated.lastModified = con.getHeaderField("Last-Modified");
+        updated.sha1 = hash;
+        writeMeta(metaPath, key, updated);
+        return body;
+    }
+
+    // Reading the rest of the response, instead of disconnecting, lets the JDK keep the connection alive for the next request
+    private static void drain(HttpURLConnection http) {
+        try (InputStream in = http.getResponseCode() >= 400 ? http.getErrorStream() : http.getInputStream()) {
+            if (in != null) {
+                byte[] buf = new byte[1024];
+                while (in.read(buf) != -1);
+            }
+        } catch (IOException e) {
+            http.disconnect();
+        }
+    }
+
+    private static Meta readMeta(Path path) {
+        if (!Files.isRegularFile(path))
+            return null;
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, Meta.class);
+        } catch (IOException | JsonParseException e) {
+            return null;
+        }
+    }
+
+    private void writeMeta(Path path, String key, Meta meta) throws IOException {
+        Path tmp = Files.createTempFile(root, key, ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                GSON.toJson(meta, writer);
+            }
+            move(tmp, path);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static class Meta {
+        private String url;
+        private String etag;
+        private String lastModified;
+        private String sha1;
+    }
+}
@@ -0,0 +1,497 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installertools.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.objectweb.asm.Opcodes.ACC_INTERFACE;
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+
+/*
+ * Random access reader for the binary output of EXTRACT_INHERITANCE.
+ *
+ * Layout, all values are big endian ints unless noted:
+ *   Header:       MAGIC, VERSION, stringCount, classCount, classIndexOffset, reverseCount, reverseIndexOffset
+ *   String table: stringCount + 1 offsets relative to the start of the string data, followed by the UTF-8 data.
+ *                 Strings are sorted by their unsigned UTF-8 bytes, so string ids sort the same way the strings do.
+ *   Class index:  classCount * (nameId, recordOffset), sorted by nameId
+ *   Class record: nameId, access, superId, interfaceCount, methodCount, fieldCount, annotationCount,
+ *                 interfaceIds[interfaceCount], annotationIds[annotationCount],
+ *                 methods[methodCount] * (nameId, descId, access, overrideId, bouncerNameId, bouncerDescId, extraOffset), sorted by (nameId, descId)
+ *                 fields[fieldCount] * (nameId, descId, access, extraOffset), sorted by nameId
+ *   Member extra: exceptionCount, exceptionIds[exceptionCount], annotationCount, annotationIds[annotationCount]
+ *   Reverse index: reverseCount * (nameId, offset), sorted by nameId. Any class that is a direct super type of an input class, including ones not in the class index.
+ *   Reverse edges: subclassCount, subclassIds[subclassCount], implementorCount, implementorIds[implementorCount]
+ *                 Subclasses extend the class, implementors list it as an interface. Both are sorted by id.
+ * Missing values are stored as -1.
+ * Version 1 files have no reverse index, and a five value header.
+ */
+public class InheritanceDatabase {
+    public static final int MAGIC = 0x494E4852; // INHR
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 7 * 4;
+    public static final int CLASS_HEADER_SIZE = 7 * 4;
+    public static final int METHOD_SIZE = 7 * 4;
+    public static final int FIELD_SIZE = 4 * 4;
+
+    // The order strings must be written in the string table.
+    public static final Comparator<byte[]> STRING_ORDER = InheritanceDatabase::compare;
+
+    private final ByteBuffer buf;
+    private final int stringCount;
+    private final int classCount;
+    private final int stringIndex;
+    private final int stringData;
+    private final int classIndex;
+    private final int reverseCount;
+    private final int reverseIndex;
+    private final String[] strings;
+    private final Map<String, List<String>> subtypes = new ConcurrentHashMap<>();
+
+    public static InheritanceDatabase open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new InheritanceDatabase(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // Reads the entire file into the heap instead of mapping it
+    public static InheritanceDatabase load(Path path) throws IOException {
+        return new InheritanceDatabase(ByteBuffer.wrap(Files.readAllBytes(path)));
+    }
+
+    public InheritanceDatabase(ByteBuffer buf) {
+        this.buf = buf;
+        if (buf.getInt(0) != MAGIC)
+            throw new IllegalArgumentException("Invalid inheritance database, bad magic");
+        int version = buf.getInt(4);
+        if (version != 1 && version != VERSION)
+            throw new IllegalArgumentException("Unsupported inheritance database version " + version + " expected " + VERSION);
+        this.stringCount = buf.getInt(8);
+        this.classCount = buf.getInt(12);
+        this.classIndex = buf.getInt(16);
+        this.reverseCount = version == 1 ? 0 : buf.getInt(20);
+        this.reverseIndex = version == 1 ? 0 : buf.getInt(24);
+        this.stringIndex = version == 1 ? 5 * 4 : HEADER_SIZE;
+        this.stringData = stringIndex + (stringCount + 1) * 4;
+        this.strings = new String[stringCount];
+    }
+
+    public int getClassCount() {
+        return classCount;
+    }
+
+    // All class names, in sorted order
+    public List<String> getClassNames() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return getString(buf.getInt(classIndex + index * 8));
+            }
+
+            @Override
+            public int size() {
+                return classCount;
+            }
+        };
+    }
+
+    public ClassEntry getClass(String name) {
+        int offset = findIndex(classIndex, classCount, findString(name));
+        return offset == -1 ? null : new ClassEntry(offset);
+    }
+
+    // Searches a (nameId, offset) index, returning the offset or -1 if it's not there
+    private int findIndex(int index, int count, int id) {
+        if (id == -1)
+            return -1;
+
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = buf.getInt(index + mid * 8);
+            if (value < id)
+                low = mid + 1;
+            else if (value > id)
+                high = mid - 1;
+            else
+                return buf.getInt(index + mid * 8 + 4);
+        }
+        return -1;
+    }
+
+    // Classes that directly extend the specified class
+    public List<String> getDirectSubclasses(String name) {
+        int offset = findIndex(reverseIndex, reverseCount, findString(name));
+        return offset == -1 ? Collections.emptyList() : getStrings(offset + 4, buf.getInt(offset));
+    }
+
+    // Classes and interfaces that directly list the specified interface
+    public List<String> getDirectImplementors(String name) {
+        int offset = findIndex(reverseIndex, reverseCount, findString(name));
+        if (offset == -1)
+            return Collections.emptyList();
+        offset += 4 + buf.getInt(offset) * 4;
+        return getStrings(offset + 4, buf.getInt(offset));
+    }
+
+    // Every class and interface that extends or implements the specified class, at any depth. Computed once per class and cached.
+    public List<String> getSubtypes(String name) {
+        List<String> ret = subtypes.get(name);
+        if (ret != null)
+            return ret;
+
+        Set<String> seen = new HashSet<>();
+        Deque<String> que = new ArrayDeque<>();
+        que.add(name);
+        while (!que.isEmpty()) {
+            String cls = que.poll();
+            for (String sub : getDirectSubclasses(cls)) {
+                if (seen.add(sub))
+                    que.add(sub);
+            }
+            for (String sub : getDirectImplementors(cls)) {
+                if (seen.add(sub))
+                    que.add(sub);
+            }
+        }
+
+        List<String> sorted = new ArrayList<>(seen);
+        Collections.sort(sorted);
+        ret = Collections.unmodifiableList(sorted);
+        subtypes.put(name, ret);
+        return ret;
+    }
+
+    // Every non-interface class that implements the specified interface, directly or through its parents.
+    public List<String> getImplementors(String name) {
+        List<String> ret = new ArrayList<>();
+        for (String sub : getSubtypes(name)) {
+            ClassEntry cls = getClass(sub);
+            if (cls != null && (cls.getAccess() & ACC_INTERFACE) == 0)
+                ret.add(sub);
+        }
+        return ret;
+    }
+
+    // Every method in a subtype of owner with the same name and descriptor that can override it.
+    public List<MethodEntry> getOverriders(String owner, String name, String desc) {
+        List<MethodEntry> ret = new ArrayList<>();
+        for (String sub : getSubtypes(owner)) {
+            ClassEntry cls = getClass(sub);
+            MethodEntry mtd = cls == null ? null : cls.getMethod(name, desc);
+            if (mtd != null && (mtd.getAccess() & (ACC_PRIVATE | ACC_STATIC)) == 0)
+                ret.add(mtd);
+        }
+        return ret;
+    }
+
+    public String getString(int id) {
+        if (id == -1)
+            return null;
+        String ret = strings[id];
+        if (ret == null) {
+            int start = buf.getInt(getStringOffset(id));
+            int end = buf.getInt(getStringOffset(id + 1));
+            byte[] data = new byte[end - start];
+            ByteBuffer dup = buf.duplicate();
+            dup.position(stringData + start);
+            dup.get(data);
+            ret = new String(data, StandardCharsets.UTF_8);
+            strings[id] = ret;
+        }
+        return ret;
+    }
+
+    // Binary searches the string table, returns -1 if the string does not exist.
+    public int findString(String value) {
+        byte[] key = value.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = stringCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, key);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    private int compare(int id, byte[] key) {
+        int start = stringData + buf.getInt(getStringOffset(id));
+        int len = buf.getInt(getStringOffset(id + 1)) - buf.getInt(getStringOffset(id));
+        int max = Math.min(len, key.length);
+        for (int x = 0; x < max; x++) {
+            int cmp = (buf.get(start + x) & 0xFF) - (key[x] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return len - key.length;
+    }
+
+    private int getStringOffset(int id) {
+        return stringIndex + id * 4;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        int max = Math.min(a.length, b.length);
+        for (int x = 0; x < max; x++) {
+            int cmp = (a[x] & 0xFF) - (b[x] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return a.length - b.length;
+    }
+
+    private List<String> getStrings(int offset, int count) {
+        if (count == 0)
+            return Collections.emptyList();
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return getString(buf.getInt(offset + index * 4));
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    public class ClassEntry {
+        private final int offset;
+
+        private ClassEntry(int offset) {
+            this.offset = offset;
+        }
+
+        public String getName() {
+            return getString(buf.getInt(offset));
+        }
+
+        public int getAccess() {
+            return buf.getInt(offset + 4);
+        }
+
+        public String getSuperName() {
+            return getString(buf.getInt(offset + 8));
+        }
+
+        public List<String> getInterfaces() {
+            return getStrings(offset + CLASS_HEADER_SIZE, buf.getInt(offset + 12));
+        }
+
+        public List<String> getAnnotations() {
+            return getStrings(offset + CLASS_HEADER_SIZE + buf.getInt(offset + 12) * 4, buf.getInt(offset + 24));
+        }
+
+        private int getMethodStart() {
+            return offset + CLASS_HEADER_SIZE + (buf.getInt(offset + 12) + buf.getInt(offset + 24)) * 4;
+        }
+
+        private int getFieldStart() {
+            return getMethodStart() + buf.getInt(offset + 16) * METHOD_SIZE;
+        }
+
+        public List<MethodEntry> getMethods() {
+            int start = getMethodStart();
+            int count = buf.getInt(offset + 16);
+            return new AbstractList<MethodEntry>() {
+                @Override
+                public MethodEntry get(int index) {
+                    return new MethodEntry(ClassEntry.this, start + index * METHOD_SIZE);
+                }
+
+                @Override
+                public int size() {
+                    return count;
+                }
+            };
+        }
+
+        public MethodEntry getMethod(String name, String desc) {
+            int nameId = findString(name);
+            int descId = nameId == -1 ? -1 : findString(desc);
+            if (descId == -1)
+                return null;
+
+            int start = getMethodStart();
+            int low = 0;
+            int high = buf.getInt(offset + 16) - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int pos = start + mid * METHOD_SIZE;
+                int cmp = Integer.compare(buf.getInt(pos), nameId);
+                if (cmp == 0)
+                    cmp = Integer.compare(buf.getInt(pos + 4), descId);
+
+                if (cmp < 0)
+                    low = mid + 1;
+                else if (cmp > 0)
+                    high = mid - 1;
+                else
+                    return new MethodEntry(this, pos);
+            }
+            return null;
+        }
+
+        public List<FieldEntry> getFields() {
+            int start = getFieldStart();
+            int count = buf.getInt(offset + 20);
+            return new AbstractList<FieldEntry>() {
+                @Override
+                public FieldEntry get(int index) {
+                    return new FieldEntry(start + index * FIELD_SIZE);
+                }
+
+                @Override
+                public int size() {
+                    return count;
+                }
+            };
+        }
+
+        public FieldEntry getField(String name) {
+            int nameId = findString(name);
+            if (nameId == -1)
+                return null;
+
+            int start = getFieldStart();
+            int low = 0;
+            int high = buf.getInt(offset + 20) - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int pos = start + mid * FIELD_SIZE;
+                int value = buf.getInt(pos);
+                if (value < nameId)
+                    low = mid + 1;
+                else if (value > nameId)
+                    high = mid - 1;
+                else
+                    return new FieldEntry(pos);
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+    }
+
+    public class MethodEntry {
+        private final ClassEntry owner;
+        private final int offset;
+
+        private MethodEntry(ClassEntry owner, int offset) {
+            this.owner = owner;
+            this.offset = offset;
+        }
+
+        public ClassEntry getOwner() {
+            return owner;
+        }
+
+        public String getName() {
+            return getString(buf.getInt(offset));
+        }
+
+        public String getDesc() {
+            return getString(buf.getInt(offset + 4));
+        }
+
+        public int getAccess() {
+            return buf.getInt(offset + 8);
+        }
+
+        // The top most owner of this method, or null if it doesn't override anything.
+        public String getOverride() {
+            return getString(buf.getInt(offset + 12));
+        }
+
+        public String getBouncerName() {
+            return getString(buf.getInt(offset + 16));
+        }
+
+        public String getBouncerDesc() {
+            return getString(buf.getInt(offset + 20));
+        }
+
+        public List<String> getExceptions() {
+            int extra = buf.getInt(offset + 24);
+            return extra == -1 ? Collections.emptyList() : getStrings(extra + 4, buf.getInt(extra));
+        }
+
+        public List<String> getAnnotations() {
+            int extra = buf.getInt(offset + 24);
+            if (extra == -1)
+                return Collections.emptyList();
+            extra += 4 + buf.getInt(extra) * 4;
+            return getStrings(extra + 4, buf.getInt(extra));
+        }
+
+        @Override
+        public String toString() {
+            return owner.getName() + '.' + getName() + getDesc();
+        }
+    }
+
+    public class FieldEntry {
+        private final int offset;
+
+        private FieldEntry(int offset) {
+            this.offset = offset;
+        }
+
+        public String getName() {
+            return getString(buf.getInt(offset));
+        }
+
+        public String getDesc() {
+            return getString(buf.getInt(offset + 4));
+        }
+
+        public int getAccess() {
+            return buf.getInt(offset + 8);
+        }
+
+        public List<String> getAnnotations() {
+            int extra = buf.getInt(offset + 12);
+            if (extra == -1)
+                return Collections.emptyList();
+            extra += 4 + buf.getInt(extra) * 4;
+            return getStrings(extra + 4, buf.getInt(extra));
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installertools.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ProviderNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Reads the raw bytecode of JDK classes from the runtime image instead of loading them through a class loader.
+// On Java 9+ this is the jrt:/ filesystem, on Java 8 it is rt.jar and the rest of the boot class path.
+// The package -> module index is built lazily, so repeated lookups are a single map hit.
+// The Java 8 boot jars are opened on first use and held until this is closed, jrt:/ is the JVM's own and is left open.
+public class JdkClasses implements Closeable {
+    private final FileSystem jrt;
+    private List<ZipFile> bootJars;
+    private final Map<String, List<Path>> packages = new HashMap<>();
+
+    public JdkClasses() {
+        FileSystem fs = null;
+        try {
+            fs = FileSystems.getFileSystem(URI.create("jrt:/"));
+        } catch (ProviderNotFoundException | FileSystemNotFoundException e) {
+            // Java 8, no module image so fall back to the boot class path
+        }
+        this.jrt = fs;
+    }
+
+    private List<ZipFile> getBootJars() {
+        if (bootJars != null)
+            return bootJars;
+
+        bootJars = new ArrayList<>();
+        String boot = System.getProperty("sun.boot.class.path");
+        if (boot == null)
+            boot = System.getProperty("java.home") + File.separator + "lib" + File.separator + "rt.jar";
+
+        for (String path : boot.split(File.pathSeparator)) {
+            File file = new File(path);
+            if (!file.isFile())
+                continue;
+            try {
+                bootJars.add(new ZipFile(file));
+            } catch (IOException e) {
+                // Not a jar, nothing we can read classes from
+            }
+        }
+        return bootJars;
+    }
+
+    // Returns the class file for the specified internal class name, or null if it is not part of the JDK.
+    public synchronized byte[] getClassBytes(String name) throws IOException {
+        String entry = name + ".class";
+        if (jrt == null) {
+            for (ZipFile jar : getBootJars()) {
+                ZipEntry ze = jar.getEntry(entry);
+                if (ze != null) {
+                    try (InputStream is = jar.getInputStream(ze)) {
+                        return Utils.toByteArray(is);
+                    }
+                }
+            }
+            return null;
+        }
+
+        int idx = name.lastIndexOf('/');
+        String pkg = idx == -1 ? "" : name.substring(0, idx);
+        for (Path module : getModules(pkg)) {
+            Path path = module.resolve(entry);
+            if (Files.exists(path))
+                return Files.readAllBytes(path);
+        }
+        return null;
+    }
+
+    private List<Path> getModules(String pkg) throws IOException {
+        List<Path> ret = packages.get(pkg);
+        if (ret != null)
+            return ret;
+
+        Path dir = jrt.getPath("/packages", pkg.replace('/', '.'));
+        if (pkg.isEmpty() || !Files.isDirectory(dir)) {
+            ret = Collections.emptyList();
+        } else {
+            ret = new ArrayList<>();
+            try (DirectoryStream<Path> modules = Files.newDirectoryStream(dir)) {
+                for (Path module : modules)
+                    ret.add(jrt.getPath("/modules", module.getFileName().toString()));
+            }
+        }
+
+        packages.put(pkg, ret);
+        return ret;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (bootJars == null)
+            return;
+        List<ZipFile> jars = bootJars;
+        bootJars = null;
+        for (ZipFile jar : jars)
+            jar.close();
+    }
+}
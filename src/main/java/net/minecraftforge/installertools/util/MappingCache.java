@@ -0,0 +1,422 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installertools.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.minecraftforge.srgutils.IMappingBuilder;
+import net.minecraftforge.srgutils.IMappingFile;
+import net.minecraftforge.srgutils.IMappingFile.IClass;
+import net.minecraftforge.srgutils.IMappingFile.IField;
+import net.minecraftforge.srgutils.IMappingFile.IMethod;
+import net.minecraftforge.srgutils.IMappingFile.INode;
+import net.minecraftforge.srgutils.IMappingFile.IPackage;
+import net.minecraftforge.srgutils.IMappingFile.IParameter;
+import net.minecraftforge.srgutils.INamedMappingFile;
+
+/*
+ * Drop in replacement for IMappingFile.load that keeps a pre-parsed copy of every mapping it loads, keyed by the sha1 of the source.
+ * Entries are a string table followed by flat int records for every node, which are fed straight into an IMappingBuilder, so warm runs
+ * never parse text. They do still pay for srgutils building the tree twice, once in the builder and once in getMap, which it gives us no way around.
+ * Off unless a folder is picked, by the global --mapping-cache option or the system property. --no-mapping-cache or a property of "none" turn it back off.
+ * Entries that haven't been used recently are evicted once the folder grows past MAX_SIZE.
+ *
+ * Entries are keyed by public hashes, so anyone who can write to the folder could plant mappings for a known file. The folder is created
+ * readable by its owner only where the filesystem supports it, and entries are only read if this user owns them and nobody else can write to them.
+ * The cache is only ever an optimization, failing to read or write it never fails the task.
+ *
+ * Layout, all ints big endian:
+ *   MAGIC, VERSION
+ *   string count, then for every string its UTF-8 length and bytes
+ *   package count, then [original, mapped, meta] per package
+ *   class count, then per class:
+ *     original, mapped, meta
+ *     field count, then [original, mapped, descriptor, meta] per field
+ *     method count, then [original, mapped, descriptor, meta, parameter count, then [index, original, mapped, meta] per parameter] per method
+ * Where strings are indexes into the table, -1 for null, and meta is a count followed by key and value pairs.
+ */
+public class MappingCache {
+    public static final String PROPERTY = "net.minecraftforge.installertools.mappingCache";
+    private static final int MAGIC = 0x4D415043; // MAPC
+    private static final int VERSION = 1;
+    private static final long MAX_SIZE = 256L * 1024 * 1024;
+
+    private static volatile Path directory = getDefaultDirectory();
+
+    private static Path getDefaultDirectory() {
+        String prop = System.getProperty(PROPERTY);
+        if ("none".equals(prop))
+            return null;
+        return prop == null ? null : new File(prop).getAbsoluteFile().toPath();
+    }
+
+    public static void setDirectory(File dir) {
+        directory = dir == null ? null : dir.getAbsoluteFile().toPath();
+    }
+
+    public static Path getDirectory() {
+        return directory;
+    }
+
+    public static IMappingFile load(File file) throws IOException {
+        Path dir = directory;
+        if (dir == null)
+            return IMappingFile.load(file);
+
+        String key = HashFunction.SHA1.hash(file);
+        IMappingFile ret = read(dir, key);
+        if (ret == null) {
+            ret = IMappingFile.load(file);
+            store(dir, key, ret);
+        }
+        return ret;
+    }
+
+    // Same as INamedMappingFile.load(file).getMap(from, to), the names are part of the key
+    public static IMappingFile load(File file, String from, String to) throws IOException {
+        Path dir = directory;
+        if (dir == null)
+            return INamedMappingFile.load(file).getMap(from, to);
+
+        String key = HashFunction.SHA1.hash(HashFunction.SHA1.hash(file) + '\n' + from + '\n' + to);
+        IMappingFile ret = read(dir, key);
+        if (ret == null) {
+            ret = INamedMappingFile.load(file).getMap(from, to);
+            store(dir, key, ret);
+        }
+        return ret;
+    }
+
+    // Reads the whole stream, as we need its hash before we know if it has to be parsed
+    public static IMappingFile load(InputStream stream) throws IOException {
+        Path dir = directory;
+        if (dir == null)
+            return IMappingFile.load(stream);
+
+        byte[] data = Utils.toByteArray(stream);
+        String key = HashFunction.SHA1.hash(data);
+        IMappingFile ret = read(dir, key);
+        if (ret == null) {
+            ret = IMappingFile.load(new ByteArrayInputStream(data));
+            store(dir, key, ret);
+        }
+        return ret;
+    }
+
+    // Null if there is no usable entry, anything broken is simply rebuilt
+    private static IMappingFile read(Path dir, String key) {
+        Path path = dir.resolve(key + ".bin");
+        if (!Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS) || !isTrusted(path))
+            return null;
+
+        // Read onto the heap rather than mapped, so nothing keeps the file open once we're done and it can be evicted
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(path));
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+                throw new IOException("Unknown format");
+
+            String[] strings = new String[count(buf)];
+            byte[] tmp = new byte[256];
+            for (int x = 0; x < strings.length; x++) {
+                int length = count(buf);
+                if (tmp.length < length)
+                    tmp = new byte[Math.max(length, tmp.length * 2)];
+                buf.get(tmp, 0, length);
+                strings[x] = new String(tmp, 0, length, StandardCharsets.UTF_8);
+            }
+
+            Records in = new Records(buf, strings);
+            IMappingBuilder builder = IMappingBuilder.create("left", "right");
+            for (int pkgs = buf.getInt(); pkgs > 0; pkgs--)
+                in.meta(builder.addPackage(in.string(), in.string())::meta);
+
+            for (int classes = buf.getInt(); classes > 0; classes--) {
+                IMappingBuilder.IClass cls = builder.addClass(in.string(), in.string());
+                in.meta(cls::meta);
+
+                for (int fields = buf.getInt(); fields > 0; fields--) {
+                    IMappingBuilder.IField fld = cls.field(in.string(), in.string());
+                    String desc = in.string();
+                    if (desc != null)
+                        fld.descriptor(desc);
+                    in.meta(fld::meta);
+                }
+
+                for (int methods = buf.getInt(); methods > 0; methods--) {
+                    String original = in.string();
+                    String mapped = in.string();
+                    IMappingBuilder.IMethod mtd = cls.method(in.string(), original, mapped);
+                    in.meta(mtd::meta);
+                    for (int params = buf.getInt(); params > 0; params--) {
+                        int index = buf.getInt();
+                        in.meta(mtd.parameter(index, in.string(), in.string())::meta);
+                    }
+                }
+            }
+
+            if (buf.hasRemaining())
+                throw new IOException("Trailing data");
+            IMappingFile ret = builder.build().getMap("left", "right");
+            touch(path);
+            return ret;
+        } catch (IOException | RuntimeException e) {
+            // Anything we can't decode is a miss, deleted so the caller writes a good copy in its place
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            return null;
+        }
+    }
+
+    // Owned by us and not writable by anyone else, so nobody but this user could have put it there
+    private static boolean isTrusted(Path path) {
+        try {
+            UserPrincipal user = path.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+            if (!user.equals(Files.getOwner(path, LinkOption.NOFOLLOW_LINKS)))
+                return false;
+
+            PosixFileAttributeView posix = Files.getFileAttributeView(path, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+            if (posix != null) {
+                Set<PosixFilePermission> perms = posix.readAttributes().permissions();
+                if (perms.contains(PosixFilePermission.GROUP_WRITE) || perms.contains(PosixFilePermission.OTHERS_WRITE))
+                    return false;
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // Can't tell who owns it, so we can't trust it
+            return false;
+        }
+    }
+
+    // Counts and lengths can never be more than the bytes left, so a corrupt one fails here instead of in a huge allocation
+    private static int count(ByteBuffer buf) throws IOException {
+        int ret = buf.getInt();
+        if (ret < 0 || ret > buf.remaining())
+            throw new IOException("Invalid count " + ret);
+        return ret;
+    }
+
+    // Last modified doubles as last used, which is what eviction goes by
+    private static void touch(Path path) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Only makes it more likely to be evicted
+        }
+    }
+
+    /*
+     * Deletes the least recently used entries until the folder is back under MAX_SIZE.
+     * Other runs may be using the same folder, so entries that vanish or can't be deleted are skipped, a full cache is never worth failing over.
+     */
+    private static void evict(Path dir) {
+        List<Path> entries = new ArrayList<>();
+        Map<Path, Long> sizes = new HashMap<>();
+        Map<Path, Long> times = new HashMap<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.bin")) {
+            for (Path entry : stream) {
+                try {
+                    sizes.put(entry, Files.size(entry));
+                    times.put(entry, Files.getLastModifiedTime(entry).toMillis());
+                } catch (IOException e) {
+                    continue;
+                }
+                entries.add(entry);
+                total += sizes.get(entry);
+            }
+        } catch (IOException e) {
+            return;
+        }
+
+        entries.sort(Comparator.comparing(times::get));
+        for (Path entry : entries) {
+            if (total <= MAX_SIZE)
+                break;
+            try {
+                Files.deleteIfExists(entry);
+                total -= sizes.get(entry);
+            } catch (IOException e) {
+                // In use on Windows, try the next one
+            }
+        }
+    }
+
+    private static void store(Path dir, String key, IMappingFile map) {
+        try {
+            write(dir, key, map);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not write mapping cache entry " + key + " to " + dir + ": " + e);
+        }
+    }
+
+    // Written next to the final file and moved into place, so that concurrent runs never see half an entry
+    private static void write(Path dir, String key, IMappingFile map) throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        Writer out = new Writer(records, ids, strings);
+
+        out.writeInt(map.getPackages().size());
+        for (IPackage pkg : map.getPackages())
+            out.node(pkg);
+
+        out.writeInt(map.getClasses().size());
+        for (IClass cls : map.getClasses()) {
+            out.node(cls);
+
+            out.writeInt(cls.getFields().size());
+            for (IField fld : cls.getFields()) {
+                out.string(fld.getOriginal());
+                out.string(fld.getMapped());
+                out.string(fld.getDescriptor());
+                out.meta(fld);
+            }
+
+            out.writeInt(cls.getMethods().size());
+            for (IMethod mtd : cls.getMethods()) {
+                out.string(mtd.getOriginal());
+                out.string(mtd.getMapped());
+                out.string(mtd.getDescriptor());
+                out.meta(mtd);
+                out.writeInt(mtd.getParameters().size());
+                for (IParameter par : mtd.getParameters()) {
+                    out.writeInt(par.getIndex());
+                    out.node(par);
+                }
+            }
+        }
+        out.flush();
+
+        if (!Files.isDirectory(dir)) {
+            // Owner only where we can, entries written by others wouldn't be trusted anyway
+            if (dir.getFileSystem().supportedFileAttributeViews().contains("posix"))
+                Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            else
+                Files.createDirectories(dir);
+        }
+        Path target = dir.resolve(key + ".bin");
+        Path tmp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp);
+                 DataOutputStream data = new DataOutputStream(new BufferedOutputStream(os))) {
+                data.writeInt(MAGIC);
+                data.writeInt(VERSION);
+                data.writeInt(strings.size());
+                for (String str : strings) {
+                    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+                    data.writeInt(bytes.length);
+                    data.write(bytes);
+                }
+                records.writeTo(data);
+            }
+
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        evict(dir);
+    }
+
+    private interface MetaConsumer {
+        Object meta(String key, String value);
+    }
+
+    private static class Records {
+        private final ByteBuffer buf;
+        private final String[] strings;
+
+        private Records(ByteBuffer buf, String[] strings) {
+            this.buf = buf;
+            this.strings = strings;
+        }
+
+        private String string() {
+            int id = buf.getInt();
+            return id == -1 ? null : strings[id];
+        }
+
+        private void meta(MetaConsumer target) {
+            for (int count = buf.getInt(); count > 0; count--)
+                target.meta(string(), string());
+        }
+    }
+
+    private static class Writer extends DataOutputStream {
+        private final Map<String, Integer> ids;
+        private final List<String> strings;
+
+        private Writer(OutputStream out, Map<String, Integer> ids, List<String> strings) {
+            super(out);
+            this.ids = ids;
+            this.strings = strings;
+        }
+
+        private void string(String value) throws IOException {
+            if (value == null) {
+                writeInt(-1);
+                return;
+            }
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = strings.size();
+                ids.put(value, id);
+                strings.add(value);
+            }
+            writeInt(id);
+        }
+
+        private void node(INode node) throws IOException {
+            string(node.getOriginal());
+            string(node.getMapped());
+            meta(node);
+        }
+
+        private void meta(INode node) throws IOException {
+            Map<String, String> meta = node.getMetadata();
+            if (meta == null) {
+                writeInt(0);
+                return;
+            }
+            writeInt(meta.size());
+            for (Map.Entry<String, String> entry : meta.entrySet()) {
+                string(entry.getKey());
+                string(entry.getValue());
+            }
+        }
+    }
+}
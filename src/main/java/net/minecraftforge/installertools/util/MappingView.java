@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installertools.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.minecraftforge.srgutils.IMappingFile;
+import net.minecraftforge.srgutils.IMappingFile.IClass;
+import net.minecraftforge.srgutils.IMappingFile.IField;
+import net.minecraftforge.srgutils.IMappingFile.IMethod;
+import net.minecraftforge.srgutils.IMappingFile.IPackage;
+import net.minecraftforge.srgutils.IMappingFile.IParameter;
+import net.minecraftforge.srgutils.IRenamer;
+
+/*
+ * Read only lookups over a mapping, keyed by the names on its input side.
+ * Views can be reversed and chained with other views without building intermediate IMappingFile trees. Forward views ask the
+ * tree directly, reversed views index it by mapped name, one class at a time as they are asked for. A real tree is only built by materialize.
+ */
+public abstract class MappingView {
+    public abstract String remapPackage(String name);
+
+    public abstract String remapClass(String name);
+
+    // Null if this view knows nothing about the class, in which case its members keep their names
+    public abstract ClassView getClass(String name);
+
+    // If the class is one materialize would write, chained and merged views only write the classes of the first view
+    public abstract boolean hasClass(String name);
+
+    /*
+     * Remaps the classes in desc the way the materialized file would. Classes it doesn't write fall back to their outer class
+     * or keep their name, instead of going through every hop. This is what makes a hop look members up by the same descriptor
+     * as a separate CHAIN_MAPPING run given the written output of the hops before it.
+     */
+    public String remapDescriptor(String desc) {
+        StringBuilder ret = new StringBuilder(desc.length());
+        for (int x = 0; x < desc.length(); x++) {
+            char c = desc.charAt(x);
+            ret.append(c);
+            if (c == 'L') {
+                int end = desc.indexOf(';', x);
+                ret.append(remapWrittenClass(desc.substring(x + 1, end))).append(';');
+                x = end;
+            }
+        }
+        return ret.toString();
+    }
+
+    // Same inner class fallback as IMappingFile.remapClass, over the classes materialize would write
+    private String remapWrittenClass(String name) {
+        if (hasClass(name))
+            return remapClass(name);
+        int idx = name.lastIndexOf('$');
+        return idx == -1 ? name : remapWrittenClass(name.substring(0, idx)) + name.substring(idx);
+    }
+
+    public interface ClassView {
+        String remapField(String name);
+        String remapMethod(String name, String desc);
+        // Null if the class has no such method, in which case its parameters keep their names
+        MethodView getMethod(String name, String desc);
+    }
+
+    public interface MethodView {
+        String remapParameter(int index, String name);
+    }
+
+    public static MappingView of(IMappingFile file) {
+        return new Direct(file);
+    }
+
+    // The same as of(file.reverse()), without building the reversed tree
+    public static MappingView reverse(IMappingFile file) {
+        return new Reversed(file);
+    }
+
+    // Looks up the output of this view in link, like CHAIN_MAPPING. Disabled parts keep the name this view gives them.
+    public MappingView chain(MappingView link, boolean classes, boolean fields, boolean methods, boolean params) {
+        return new Chained(this, link, classes, fields, methods, params);
+    }
+
+    // Looks up the input of this view in link, like MERGE_MAPPING. Disabled parts, and members of classes link doesn't have, keep the name this view gives them.
+    public MappingView merge(MappingView link, boolean classes, boolean fields, boolean methods, boolean params) {
+        return new Merged(this, link, classes, fields, methods, params);
+    }
+
+    /*
+     * Renames every node of source by view, the same as IMappingFile.rename with a renamer for each hop, minus the intermediate trees.
+     * The view must be keyed by the original names of source, so views over a reversed left are made with of(left.reverse()).
+     */
+    public static IMappingFile materialize(IMappingFile source, MappingView view) {
+        return source.rename(new IRenamer() {
+            // srgutils renames the members of a class together, so keep the last lookups instead of composing them for every member
+            private IClass lastClass;
+            private ClassView lastClassView;
+            private IMethod lastMethod;
+            private MethodView lastMethodView;
+
+            private ClassView getClass(IClass cls) {
+                if (cls != lastClass) {
+                    lastClass = cls;
+                    lastClassView = view.getClass(cls.getOriginal());
+                }
+                return lastClassView;
+            }
+
+            private MethodView getMethod(IMethod mtd) {
+                if (mtd != lastMethod) {
+                    ClassView cv = getClass(mtd.getParent());
+                    lastMethod = mtd;
+                    lastMethodView = cv == null ? null : cv.getMethod(mtd.getOriginal(), mtd.getDescriptor());
+                }
+                return lastMethodView;
+            }
+
+            @Override
+            public String rename(IPackage value) {
+                return view.remapPackage(value.getOriginal());
+            }
+
+            @Override
+            public String rename(IClass value) {
+                return view.remapClass(value.getOriginal());
+            }
+
+            @Override
+            public String rename(IField value) {
+                ClassView cv = getClass(value.getParent());
+                return cv == null ? value.getOriginal() : cv.remapField(value.getOriginal());
+            }
+
+            @Override
+            public String rename(IMethod value) {
+                ClassView cv = getClass(value.getParent());
+                return cv == null ? value.getOriginal() : cv.remapMethod(value.getOriginal(), value.getDescriptor());
+            }
+
+            @Override
+            public String rename(IParameter value) {
+                MethodView mv = getMethod(value.getParent());
+                return mv == null ? value.getOriginal() : mv.remapParameter(value.getIndex(), value.getOriginal());
+            }
+        });
+    }
+
+    // Every lookup is answered by the tree itself
+    private static class Direct extends MappingView {
+        private final IMappingFile file;
+
+        private Direct(IMappingFile file) {
+            this.file = file;
+        }
+
+        @Override
+        public String remapPackage(String name) {
+            return file.remapPackage(name);
+        }
+
+        @Override
+        public String remapClass(String name) {
+            return file.remapClass(name);
+        }
+
+        @Override
+        public ClassView getClass(String name) {
+            IClass cls = file.getClass(name);
+            if (cls == null)
+                return null;
+
+            return new ClassView() {
+                @Override
+                public String remapField(String name) {
+                    return cls.remapField(name);
+                }
+
+                @Override
+                public String remapMethod(String name, String desc) {
+                    return cls.remapMethod(name, desc);
+                }
+
+                @Override
+                public MethodView getMethod(String name, String desc) {
+                    IMethod mtd = cls.getMethod(name, desc);
+                    return mtd == null ? null : mtd::remapParameter;
+                }
+            };
+        }
+
+        @Override
+        public boolean hasClass(String name) {
+            return file.getClass(name) != null;
+        }
+    }
+
+    /*
+     * Classes are found by their mapped name, their members are only indexed the first time the class is asked for.
+     * Packages are few enough to index up front.
+     */
+    private static class Reversed extends MappingView {
+        private final Map<String, String> packages = new HashMap<>();
+        private final Map<String, IClass> classes = new HashMap<>();
+        private final Map<String, Cls> indexed = new HashMap<>();
+
+        private Reversed(IMappingFile file) {
+            for (IPackage pkg : file.getPackages())
+                packages.put(pkg.getMapped(), pkg.getOriginal());
+            for (IClass cls : file.getClasses())
+                classes.put(cls.getMapped(), cls);
+        }
+
+        @Override
+        public String remapPackage(String name) {
+            return packages.getOrDefault(name, name);
+        }
+
+        // Same inner class fallback as IMappingFile.remapClass
+        @Override
+        public String remapClass(String name) {
+            IClass cls = classes.get(name);
+            if (cls != null)
+                return cls.getOriginal();
+            int idx = name.lastIndexOf('$');
+            if (idx != -1)
+                return remapClass(name.substring(0, idx)) + name.substring(idx);
+            return name;
+        }
+
+        @Override
+        public ClassView getClass(String name) {
+            Cls ret = indexed.get(name);
+            if (ret == null) {
+                IClass cls = classes.get(name);
+                if (cls == null)
+                    return null;
+                ret = new Cls(cls);
+                indexed.put(name, ret);
+            }
+            return ret;
+        }
+
+        @Override
+        public boolean hasClass(String name) {
+            return classes.containsKey(name);
+        }
+    }
+
+    // The members of one class of a reversed view, keyed by their mapped names
+    private static class Cls implements ClassView {
+        private final Map<String, String> fields = new HashMap<>();
+        private final Map<String, Mtd> methods = new HashMap<>();
+
+        private Cls(IClass cls) {
+            for (IField fld : cls.getFields())
+                fields.put(fld.getMapped(), fld.getOriginal());
+            for (IMethod mtd : cls.getMethods())
+                methods.put(mtd.getMapped() + mtd.getMappedDescriptor(), new Mtd(mtd));
+        }
+
+        @Override
+        public String remapField(String name) {
+            return fields.getOrDefault(name, name);
+        }
+
+        @Override
+        public String remapMethod(String name, String desc) {
+            Mtd mtd = methods.get(name + desc);
+            return mtd == null ? name : mtd.mapped;
+        }
+
+        @Override
+        public MethodView getMethod(String name, String desc) {
+            return methods.get(name + desc);
+        }
+    }
+
+    private static class Mtd implements MethodView {
+        private final String mapped;
+        private final Map<Integer, String> params;
+
+        private Mtd(IMethod mtd) {
+            this.mapped = mtd.getOriginal();
+            Collection<? extends IParameter> pars = mtd.getParameters();
+            this.params = pars.isEmpty() ? Collections.emptyMap() : new HashMap<>();
+            for (IParameter par : pars)
+                params.putIfAbsent(par.getIndex(), par.getOriginal());
+        }
+
+        @Override
+        public String remapParameter(int index, String name) {
+            return params.getOrDefault(index, name);
+        }
+    }
+
+    private static class Chained extends MappingView {
+        private final MappingView first;
+        private final MappingView link;
+        private final boolean classes, fields, methods, params;
+
+        private Chained(MappingView first, MappingView link, boolean classes, boolean fields, boolean methods, boolean params) {
+            this.first = first;
+            this.link = link;
+            this.classes = classes;
+            this.fields = fields;
+            this.methods = methods;
+            this.params = params;
+        }
+
+        @Override
+        public String remapPackage(String name) {
+            return link.remapPackage(first.remapPackage(name));
+        }
+
+        @Override
+        public boolean hasClass(String name) {
+            return first.hasClass(name);
+        }
+
+        @Override
+        public String remapClass(String name) {
+            String ret = first.remapClass(name);
+            return classes ? link.remapClass(ret) : ret;
+        }
+
+        @Override
+        public ClassView getClass(String name) {
+            ClassView a = first.getClass(name);
+            ClassView b = link.getClass(first.remapClass(name));
+            if (a == null && b == null)
+                return null;
+
+            return new ClassView() {
+                @Override
+                public String remapField(String name) {
+                    String ret = a == null ? name : a.remapField(name);
+                    return fields && b != null ? b.remapField(ret) : ret;
+                }
+
+                @Override
+                public String remapMethod(String name, String desc) {
+                    String ret = a == null ? name : a.remapMethod(name, desc);
+                    return methods && b != null ? b.remapMethod(ret, first.remapDescriptor(desc)) : ret;
+                }
+
+                @Override
+                public MethodView getMethod(String name, String desc) {
+                    MethodView ma = a == null ? null : a.getMethod(name, desc);
+                    MethodView mb = !params || b == null ? null : b.getMethod(a == null ? name : a.remapMethod(name, desc), first.remapDescriptor(desc));
+                    if (ma == null && mb == null)
+                        return null;
+                    return (index, param) -> {
+                        String ret = ma == null ? param : ma.remapParameter(index, param);
+                        return mb == null ? ret : mb.remapParameter(index, ret);
+                    };
+                }
+            };
+        }
+    }
+
+    private static class Merged extends MappingView {
+        private final MappingView first;
+        private final MappingView link;
+        private final boolean classes, fields, methods, params;
+
+        private Merged(MappingView first, MappingView link, boolean classes, boolean fields, boolean methods, boolean params) {
+            this.first = first;
+            this.link = link;
+            this.classes = classes;
+            this.fields = fields;
+            this.methods = methods;
+            this.params = params;
+        }
+
+        @Override
+        public String remapPackage(String name) {
+            return link.remapPackage(name);
+        }
+
+        @Override
+        public boolean hasClass(String name) {
+            return first.hasClass(name);
+        }
+
+        @Override
+        public String remapClass(String name) {
+            return classes ? link.remapClass(name) : first.remapClass(name);
+        }
+
+        @Override
+        public ClassView getClass(String name) {
+            ClassView a = first.getClass(name);
+            ClassView b = link.getClass(name);
+            if (a == null && b == null)
+                return null;
+
+            return new ClassView() {
+                @Override
+                public String remapField(String name) {
+                    if (fields && b != null)
+                        return b.remapField(name);
+                    return a == null ? name : a.remapField(name);
+                }
+
+                @Override
+                public String remapMethod(String name, String desc) {
+                    if (methods && b != null)
+                        return b.remapMethod(name, desc);
+                    return a == null ? name : a.remapMethod(name, desc);
+                }
+
+                @Override
+                public MethodView getMethod(String name, String desc) {
+                    MethodView ma = a == null ? null : a.getMethod(name, desc);
+                    MethodView mb = !params || b == null ? null : b.getMethod(name, desc);
+                    if (ma == null && mb == null)
+                        return null;
+                    return (index, param) -> {
+                        String ret = ma == null ? param : ma.remapParameter(index, param);
+                        return mb == null ? ret : mb.remapParameter(index, ret);
+                    };
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installertools.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/*
+ * String keyed map that keeps the most recently used values on heap until their estimated size exceeds a budget.
+ * Past that the least recently used values are serialized to a temporary file and read back the next time they are asked for.
+ * Values are only written when they were put since they were last loaded, so anyone who changes a value after get must put it again.
+ *
+ * The budget is approximate and only covers values, using the codec's own size estimate. Keys and the offset of every spilled value
+ * are always kept on heap. The file is append only, a value spilled again is written to the end and its old copy is never reclaimed.
+ */
+public class SpillMap<V> implements Closeable {
+    public interface Codec<V> {
+        void write(DataOutput out, V value) throws IOException;
+        V read(DataInput in) throws IOException;
+        // Rough number of bytes the value holds on the heap
+        long getSize(V value);
+    }
+
+    private final Codec<V> codec;
+    private final long budget;
+    private final LinkedHashMap<String, Slot<V>> cache = new LinkedHashMap<>(16, 0.75F, true);
+    private final Map<String, Long> spilled = new HashMap<>();
+    private final Set<String> keys = new HashSet<>();
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private long used = 0;
+    private FileChannel file;
+    private long fileSize = 0;
+    private int writes = 0;
+    private int reads = 0;
+
+    // Budget of Long.MAX_VALUE never touches the disk
+    public SpillMap(Codec<V> codec, long budget) {
+        this.codec = codec;
+        this.budget = budget;
+    }
+
+    public boolean containsKey(String key) {
+        return keys.contains(key);
+    }
+
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(keys);
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public V get(String key) {
+        Slot<V> slot = cache.get(key);
+        if (slot != null)
+            return slot.value;
+
+        Long offset = spilled.get(key);
+        if (offset == null)
+            return null;
+
+        V value;
+        try {
+            value = read(offset);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read spilled value: " + key, e);
+        }
+        add(key, value, false);
+        return value;
+    }
+
+    public void put(String key, V value) {
+        keys.add(key);
+        Slot<V> old = cache.remove(key);
+        if (old != null)
+            used -= old.size;
+        add(key, value, true);
+    }
+
+    // Number of values written to, and read back from, the disk
+    public int getWrites() {
+        return writes;
+    }
+
+    public int getReads() {
+        return reads;
+    }
+
+    private void add(String key, V value, boolean dirty) {
+        Slot<V> slot = new Slot<>(value, codec.getSize(value), dirty);
+        cache.put(key, slot);
+        used += slot.size;
+
+        // Oldest first, the value we were just given is always kept so that the caller can use it.
+        Iterator<Entry<String, Slot<V>>> itr = cache.entrySet().iterator();
+        while (used > budget && cache.size() > 1) {
+            Entry<String, Slot<V>> entry = itr.next();
+            Slot<V> old = entry.getValue();
+            if (old.dirty || !spilled.containsKey(entry.getKey())) {
+                try {
+                    spilled.put(entry.getKey(), write(old.value));
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to spill value: " + entry.getKey(), e);
+                }
+            }
+            used -= old.size;
+            itr.remove();
+        }
+    }
+
+    private long write(V value) throws IOException {
+        if (file == null) {
+            Path path = Files.createTempFile("installertools", ".spill");
+            file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        }
+
+        buffer.reset();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(0); // Length, filled in below
+        codec.write(out, value);
+        out.flush();
+
+        ByteBuffer data = ByteBuffer.wrap(buffer.toByteArray());
+        data.putInt(0, data.remaining() - 4);
+
+        long offset = fileSize;
+        while (data.hasRemaining())
+            fileSize += file.write(data, fileSize);
+        writes++;
+        return offset;
+    }
+
+    private V read(long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(length, offset);
+        ByteBuffer data = ByteBuffer.allocate(length.getInt(0));
+        readFully(data, offset + 4);
+        reads++;
+        return codec.read(new DataInputStream(new ByteArrayInputStream(data.array())));
+    }
+
+    private void readFully(ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = file.read(buf, offset + buf.position());
+            if (read == -1)
+                throw new IOException("Unexpected end of spill file");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    private static class Slot<V> {
+        private final V value;
+        private final long size;
+        private final boolean dirty;
+
+        private Slot(V value, long size, boolean dirty) {
+            this.value = value;
+            this.size = size;
+            this.dirty = dirty;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installertools.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Interns strings, giving each unique value a stable int id so that compound keys can be packed into primitives instead of concatenated strings.
+public class SymbolTable {
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    public int intern(String value) {
+        Integer ret = ids.get(value);
+        if (ret == null) {
+            ret = values.size();
+            values.add(value);
+            ids.put(value, ret);
+        }
+        return ret;
+    }
+
+    // Returns the shared instance of the specified value, so duplicates can be garbage collected.
+    public String canonical(String value) {
+        return value == null ? null : values.get(intern(value));
+    }
+
+    public String get(int id) {
+        return values.get(id);
+    }
+
+    // Returns the id of the specified value, or -1 if it has never been interned.
+    public int find(String value) {
+        Integer ret = ids.get(value);
+        return ret == null ? -1 : ret;
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public static long key(int first, int second) {
+        return ((long)first << 32) | (second & 0xFFFFFFFFL);
+    }
+}
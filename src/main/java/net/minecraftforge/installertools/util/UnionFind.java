@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installertools.util;
+
+import java.util.Arrays;
+
+// Disjoint sets over the ints 0 to size - 1, with union by size and path halving.
+public class UnionFind {
+    private int[] parents = new int[16];
+    private int[] sizes = new int[16];
+    private int size = 0;
+
+    // Adds a new single element set, returning its element
+    public int add() {
+        if (size == parents.length) {
+            parents = Arrays.copyOf(parents, size * 2);
+            sizes = Arrays.copyOf(sizes, size * 2);
+        }
+        parents[size] = size;
+        sizes[size] = 1;
+        return size++;
+    }
+
+    public int find(int element) {
+        while (parents[element] != element) {
+            parents[element] = parents[parents[element]];
+            element = parents[element];
+        }
+        return element;
+    }
+
+    public void union(int a, int b) {
+        a = find(a);
+        b = find(b);
+        if (a == b)
+            return;
+        if (sizes[a] < sizes[b]) {
+            int tmp = a;
+            a = b;
+            b = tmp;
+        }
+        parents[b] = a;
+        sizes[a] += sizes[b];
+    }
+
+    public int size() {
+        return size;
+    }
+}
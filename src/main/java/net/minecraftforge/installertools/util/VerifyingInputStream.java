@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installertools.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+
+// Hashes everything read through it, and fails at the end of the stream if the sha1 or size isn't what was expected.
+public class VerifyingInputStream extends FilterInputStream {
+    private final String sha1;
+    private final long size;
+    private final MessageDigest digest = HashFunction.SHA1.get();
+    private long read = 0;
+    private boolean verified = false;
+    private String actual;
+
+    // Null sha1 or negative size skip that check
+    public VerifyingInputStream(InputStream in, String sha1, long size) {
+        super(in);
+        this.sha1 = sha1;
+        this.size = size;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int ret = in.read();
+        if (ret == -1)
+            verify();
+        else {
+            digest.update((byte)ret);
+            read++;
+        }
+        return ret;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int ret = in.read(b, off, len);
+        if (ret == -1)
+            verify();
+        else if (ret > 0) {
+            digest.update(b, off, ret);
+            read += ret;
+        }
+        return ret;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes would not be hashed
+        byte[] buf = new byte[(int)Math.min(n, 8192)];
+        int ret = read(buf, 0, buf.length);
+        return ret == -1 ? 0 : ret;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    // Reads whatever is left, for readers that may stop before the end
+    public void readFully() throws IOException {
+        byte[] buf = new byte[8192];
+        while (read(buf, 0, buf.length) != -1);
+    }
+
+    // Sha1 of everything that was read, null until the end of the stream
+    public String getHash() {
+        return actual;
+    }
+
+    private void verify() throws IOException {
+        if (verified)
+            return;
+        verified = true;
+        actual = HashFunction.SHA1.pad(new BigInteger(1, digest.digest()).toString(16));
+        if (size >= 0 && read != size)
+            throw new IOException("Size mismatch, expected " + size + " bytes but got " + read);
+        if (sha1 != null && !sha1.equalsIgnoreCase(actual))
+            throw new IOException("Hash mismatch, expected " + sha1 + " but got " + actual);
+    }
+}
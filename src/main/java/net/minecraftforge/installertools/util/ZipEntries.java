@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.installertools.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+
+/*
+ * Zip entries with reproducible timestamps.
+ * Zip stores times as local date and time fields, which ZipEntry.setTime fills in using the default time zone. The old way to get
+ * the same bytes everywhere was to switch the default zone to GMT around each entry, which races with anything else running in the JVM.
+ * Instead we work out the GMT fields ourselves and hand them to the entry directly, nothing global is touched. The one exception is Java 8
+ * with a time that falls in a daylight saving gap of the default zone, see setLocalTime.
+ */
+public class ZipEntries {
+    public static final long STABLE_TIME = 628041600000L;
+    private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+    // Past this Java 8 keeps the exact time alongside the date fields, same value as ZipUtils
+    private static final long UPPER_DOSTIME_BOUND = 128L * 365 * 24 * 60 * 60 * 1000;
+    // 100ns intervals between 1601 and 1970
+    private static final long WINDOWS_EPOCH_OFFSET = 116444736000000000L;
+
+    // ZipEntry.setTimeLocal, Java 9+
+    private static final MethodHandle SET_TIME_LOCAL = findSetTimeLocal();
+
+    private static MethodHandle findSetTimeLocal() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(ZipEntry.class, "setTimeLocal", MethodType.methodType(void.class, LocalDateTime.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    public static ZipEntry stable(String name) {
+        return stable(name, STABLE_TIME);
+    }
+
+    // Same bytes as calling setTime(time) with the default time zone set to GMT
+    public static ZipEntry stable(String name, long time) {
+        ZipEntry ret = new ZipEntry(name);
+        LocalDateTime local = LocalDateTime.ofEpochSecond(Math.floorDiv(time, 1000L), (int)Math.floorMod(time, 1000L) * 1000000, ZoneOffset.UTC);
+
+        // Before 1980 the date fields hold a fixed value and the exact time goes in an extra field, neither depends on the zone
+        if (local.getYear() < 1980) {
+            ret.setLastModifiedTime(FileTime.fromMillis(time));
+            return ret;
+        }
+
+        setLocalTime(ret, local);
+
+        // After 2099 the exact time is also written to an extra field, Java 8 does the same for anything past the range of the date fields
+        if (local.getYear() > 2099 || (SET_TIME_LOCAL == null && time > UPPER_DOSTIME_BOUND))
+            setExtendedTime(ret, time);
+        return ret;
+    }
+
+    // Fills in the date fields without the default time zone getting involved
+    private static void setLocalTime(ZipEntry entry, LocalDateTime local) {
+        if (SET_TIME_LOCAL != null) {
+            try {
+                SET_TIME_LOCAL.invoke(entry, local);
+                return;
+            } catch (Throwable e) {
+                throw new RuntimeException("Failed to set zip entry time", e);
+            }
+        }
+
+        // Java 8 only converts using the default zone, so find the instant that has the same fields there
+        ZonedDateTime zoned = local.atZone(ZoneId.systemDefault());
+        if (zoned.toLocalDateTime().equals(local)) {
+            entry.setTime(zoned.toInstant().toEpochMilli());
+            return;
+        }
+
+        /*
+         * The time falls in a daylight saving gap of the default zone, so no instant has those fields there and Java 8 has no other
+         * way to set them. This is the only case that still switches the default zone, like the old code always did.
+         */
+        synchronized (ZipEntries.class) {
+            TimeZone _default = TimeZone.getDefault();
+            TimeZone.setDefault(GMT);
+            try {
+                entry.setTime(local.toInstant(ZoneOffset.UTC).toEpochMilli());
+            } finally {
+                TimeZone.setDefault(_default);
+            }
+        }
+    }
+
+    /*
+     * Sets the time ZipOutputStream writes to the extended timestamp extra field, leaving the date fields alone, which setLastModifiedTime
+     * would recompute in the default zone. ZipEntry only takes that time on its own from extra data, so it is handed an NTFS timestamp field,
+     * which holds any year unlike the 32 bit Unix one, and the extra data is cleared again as the stream writes its own field from the time.
+     */
+    private static void setExtendedTime(ZipEntry entry, long time) {
+        ByteBuffer buf = ByteBuffer.allocate(36).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putShort((short)0x000A).putShort((short)32).putInt(0); // NTFS header, reserved
+        buf.putShort((short)0x0001).putShort((short)24);            // Times tag
+        buf.putLong(time * 10000 + WINDOWS_EPOCH_OFFSET);           // Modified, 100ns intervals since 1601
+        buf.putLong(Long.MIN_VALUE).putLong(Long.MIN_VALUE);         // Accessed and created, not available
+        entry.setExtra(buf.array());
+        entry.setExtra(null);
+    }
+
+    // New entry with the name, times and comment of an existing one. Times are required, so entries without one get a fixed time instead.
+    public static ZipEntry copy(ZipEntry oldEntry) {
+        ZipEntry newEntry = new ZipEntry(oldEntry.getName());
+
+        // This is mandatory
+        if (oldEntry.getLastModifiedTime() != null) {
+            newEntry.setLastModifiedTime(oldEntry.getLastModifiedTime());
+        } else {
+            newEntry.setLastModifiedTime(FileTime.fromMillis(0x386D4380)); //01/01/2000 00:00:00 java 8 breaks when using 0.
+        }
+
+        // Optional arguments
+        if (oldEntry.getCreationTime() != null) newEntry.setCreationTime(oldEntry.getCreationTime());
+        if (oldEntry.getLastAccessTime() != null) newEntry.setLastAccessTime(oldEntry.getLastAccessTime());
+        if (oldEntry.getComment() != null) newEntry.setComment(oldEntry.getComment());
+
+        return newEntry;
+    }
+}